@@ -1,6 +1,7 @@
 package drawers;
 
 import network.DeepNeuralNetwork;
+import network.PredictionCache;
 
 import javax.swing.*;
 import java.awt.*;
@@ -14,6 +15,7 @@ public class DigitDrawer extends JFrame
 	public static final Color GRID_COLOR = new Color(126, 171, 127, 100);
 
 	private final DeepNeuralNetwork nn;
+	private final PredictionCache cache;
 	private final Canvas canvas;
 	private final JLabel label;
 	private final double[] data = new double[15];
@@ -21,6 +23,10 @@ public class DigitDrawer extends JFrame
 	public DigitDrawer(DeepNeuralNetwork nn)
 	{
 		this.nn = nn;
+
+		// the 15 pixels only have 2^15 states, every drawing is a lookup
+		cache = new PredictionCache(nn);
+		cache.precomputeBinary();
 		setLayout(new FlowLayout());
 		getContentPane().setBackground(Color.BLACK);
 
@@ -108,7 +114,7 @@ public class DigitDrawer extends JFrame
 	private void feed()
 	{
 		label.setText("NN: ...");
-		double[] output = nn.feed(data);
+		double[] output = cache.feed(data);
 
 		// get highest output
 		int highest = DeepNeuralNetwork.largestIndex(output);
@@ -1,6 +1,7 @@
 package drawers;
 
 import network.DeepNeuralNetwork;
+import network.IncrementalFeeder;
 import network.Malformer;
 import training.HandwrittenDigits;
 
@@ -11,15 +12,31 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HandwrittenDrawer extends JFrame implements MouseMotionListener, MouseListener {
+	// bursts of mouse events are coalesced into at most one evaluation per frame
+	public static final long FRAME_MILLIS = 16;
+
 	public double[] data;
 	private final DeepNeuralNetwork network;
+	private final IncrementalFeeder feeder;
 	protected final Canvas canvas;
 	protected final JLabel label;
 
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		var thread = new Thread(r, "drawer-feed");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicBoolean feedPending = new AtomicBoolean();
+
 	public HandwrittenDrawer(DeepNeuralNetwork network) {
 		this.network = network;
+		this.feeder = network != null ? new IncrementalFeeder(network) : null;
 		data = new double[HandwrittenDigits.IMAGE_RES * HandwrittenDigits.IMAGE_RES];
 
 		label = new JLabel("0");
@@ -45,8 +62,14 @@ public class HandwrittenDrawer extends JFrame implements MouseMotionListener, Mo
 	}
 
 	private void feed() {
-		double[] guess = network.feed(data);
+		// cleared before reading, so changes made during the evaluation schedule another one
+		feedPending.set(false);
+		double[] guess = feeder.feed(data.clone());
+
+		SwingUtilities.invokeLater(() -> show(guess));
+	}
 
+	private void show(double[] guess) {
 		int highest = DeepNeuralNetwork.largestIndex(guess);
 
 
@@ -74,8 +97,8 @@ public class HandwrittenDrawer extends JFrame implements MouseMotionListener, Mo
 	}
 
 	private void update() {
-		if (network != null) {
-			new Thread(this::feed).start();
+		if (network != null && feedPending.compareAndSet(false, true)) {
+			executor.schedule(this::feed, FRAME_MILLIS, TimeUnit.MILLISECONDS);
 		}
 
 		Graphics g = canvas.getGraphics();
@@ -5,6 +5,7 @@ import java.util.function.Function;
 public final class ActivationFunction {
 
 	public static final ActivationFunction SIGMOID = new ActivationFunction(
+			"sigmoid",
 			(x) -> 1 / (1 + Math.exp(-x)),
 			(x) ->
 			{
@@ -12,15 +13,60 @@ public final class ActivationFunction {
 				return sigmoid * (1 - sigmoid);
 			}
 	);
+
+	public static final ActivationFunction TANH = new ActivationFunction(
+			"tanh",
+			Math::tanh,
+			(x) ->
+			{
+				var tanh = Math.tanh(x);
+				return 1 - tanh * tanh;
+			}
+	);
+
+	public static final ActivationFunction RELU = new ActivationFunction(
+			"relu",
+			(x) -> x > 0 ? x : 0,
+			(x) -> x > 0 ? 1.0 : 0
+	);
+
+	public static final ActivationFunction IDENTITY = new ActivationFunction(
+			"identity",
+			(x) -> x,
+			(x) -> 1.0
+	);
+
+	private static final ActivationFunction[] NAMED = {SIGMOID, TANH, RELU, IDENTITY};
+
+	private final String name;
 	private final Function<Double, Double> function, derivative;
 
 	public ActivationFunction(
 			Function<Double, Double> function,
 			Function<Double, Double> derivative) {
+		this(null, function, derivative);
+	}
+
+	private ActivationFunction(
+			String name,
+			Function<Double, Double> function,
+			Function<Double, Double> derivative) {
+		this.name = name;
 		this.function = function;
 		this.derivative = derivative;
 	}
 
+	/**
+	 * The built in function of that name, as written to model files
+	 */
+	public static ActivationFunction forName(String name) {
+		for (ActivationFunction function : NAMED) {
+			if (function.name.equals(name))
+				return function;
+		}
+		throw new IllegalArgumentException("Unknown activation function " + name);
+	}
+
 	public Function<Double, Double> getFunction() {
 		return function;
 	}
@@ -29,4 +75,16 @@ public final class ActivationFunction {
 		return derivative;
 	}
 
+	/**
+	 * Null for functions created from lambdas, those can't be saved
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? "custom" : name;
+	}
+
 }
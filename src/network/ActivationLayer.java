@@ -0,0 +1,88 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Applies an activation function to every value on its own, for activations that can't be fused into the
+ * preceding layer
+ */
+public final class ActivationLayer extends Layer
+{
+	private final ActivationFunction activation;
+	private final Function<Double, Double> function, derivative;
+
+	private double[] input;
+	private final double[] output, inputError;
+
+	public ActivationLayer(int size, ActivationFunction activation)
+	{
+		super(size, size);
+
+		if (activation == null)
+			throw new IllegalArgumentException("Activation layers need a function");
+
+		this.activation = activation;
+		this.function = activation.getFunction();
+		this.derivative = activation.getDerivative();
+
+		output = new double[size];
+		inputError = new double[size];
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		this.input = input;
+		for (int i = 0; i < outputSize; i++)
+			output[i] = function.apply(input[i]);
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		if (!propagate)
+			return null;
+
+		for (int i = 0; i < inputSize; i++)
+			inputError[i] = outputError[i] * derivative.apply(input[i]);
+		return inputError;
+	}
+
+	public ActivationFunction getActivation()
+	{
+		return activation;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		return new ActivationLayer(inputSize, activation);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.ACTIVATION;
+	}
+
+	@Override
+	int getByteCount()
+	{
+		return super.getByteCount() + nameBytes(activation);
+	}
+
+	@Override
+	void putBytes(ByteBuffer buffer)
+	{
+		super.putBytes(buffer);
+		putName(buffer, activation);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Activation(" + activation + ")";
+	}
+}
@@ -0,0 +1,306 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * 2D convolution over images stored channel by channel, row major, without padding & with a stride of 1. The
+ * input is lowered into a matrix with one column per output position (im2col), so the whole layer is one
+ * matrix multiplication with the filters. The column, sum & error buffers are allocated once per layer
+ */
+public final class ConvolutionLayer extends Layer
+{
+	private final int channels, height, width;
+	private final int filters, kernel;
+	private final int outputHeight, outputWidth, positions;
+
+	// one filter per row, channels * kernel * kernel weights each, in the order of the im2col rows
+	private final Matrix weights, biases;
+	private final Matrix weightGradients, biasGradients;
+
+	// null for a linear layer
+	private final ActivationFunction activation;
+	private final Function<Double, Double> function, derivative;
+
+	// (channels * kernel²) x positions, the lowered input & its error
+	private final Matrix columns, columnError;
+
+	// filters x positions
+	private final Matrix sums, delta;
+	private final double[] output, inputError;
+
+	/**
+	 * A layer with random weights & biases between -1 and 1
+	 *
+	 * @param activation applied to every output, null for none
+	 */
+	public ConvolutionLayer(int channels, int height, int width, int filters, int kernel, ActivationFunction activation)
+	{
+		this(channels, height, width, Matrix.random(filters, channels * kernel * kernel, -1, 1), Matrix.random(filters, 1, -1, 1), kernel, activation);
+	}
+
+	ConvolutionLayer(int channels, int height, int width, Matrix weights, Matrix biases, int kernel, ActivationFunction activation)
+	{
+		super(channels * height * width, weights.rows * outputSize(height, kernel) * outputSize(width, kernel));
+
+		if (channels < 1 || kernel < 1 || kernel > height || kernel > width)
+			throw new IllegalArgumentException("Invalid " + kernel + "x" + kernel + " convolution of " + channels + "x" + height + "x" + width + " inputs");
+		if (weights.columns != channels * kernel * kernel)
+			throw new IllegalArgumentException("Expected filters of " + channels * kernel * kernel + " weights, got " + weights.columns);
+		if (biases.rows != weights.rows || biases.columns != 1)
+			throw new IllegalArgumentException("Expected " + weights.rows + "x1 biases, got " + biases.rows + "x" + biases.columns);
+		if (weights.isDirect() || biases.isDirect())
+			throw new IllegalArgumentException("Layers need heap matrices");
+
+		this.channels = channels;
+		this.height = height;
+		this.width = width;
+		this.filters = weights.rows;
+		this.kernel = kernel;
+		this.outputHeight = outputSize(height, kernel);
+		this.outputWidth = outputSize(width, kernel);
+		this.positions = outputHeight * outputWidth;
+
+		this.weights = weights;
+		this.biases = biases;
+		this.activation = activation;
+		this.function = activation == null ? null : activation.getFunction();
+		this.derivative = activation == null ? null : activation.getDerivative();
+
+		weightGradients = new Matrix(filters, weights.columns);
+		biasGradients = new Matrix(filters, 1);
+
+		columns = new Matrix(weights.columns, positions);
+		columnError = new Matrix(weights.columns, positions);
+		sums = new Matrix(filters, positions);
+		delta = new Matrix(filters, positions);
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+	}
+
+	private static int outputSize(int size, int kernel)
+	{
+		return Math.max(1, size - kernel + 1);
+	}
+
+	@Override
+	Layer withActivation(ActivationFunction activation)
+	{
+		return this.activation == null ? new ConvolutionLayer(channels, height, width, weights, biases, kernel, activation) : null;
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		im2col(input);
+		weights.multiplyInto(columns, sums);
+
+		// bias & activation in the same pass, the sums are kept for the derivative
+		double[] s = sums.buffer, b = biases.buffer;
+		for (int f = 0; f < filters; f++)
+		{
+			double bias = b[biases.offset + f];
+			int row = f * positions;
+			for (int p = 0; p < positions; p++)
+			{
+				double sum = s[row + p] + bias;
+				s[row + p] = sum;
+				output[row + p] = function == null ? sum : function.apply(sum);
+			}
+		}
+
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		double[] d = delta.buffer, s = sums.buffer, gb = biasGradients.buffer;
+		for (int f = 0; f < filters; f++)
+		{
+			int row = f * positions;
+			double biasGradient = 0;
+			for (int p = 0; p < positions; p++)
+			{
+				double value = derivative == null ? outputError[row + p] : outputError[row + p] * derivative.apply(s[row + p]);
+				d[row + p] = value;
+				biasGradient += value;
+			}
+			gb[f] = biasGradient;
+		}
+
+		// every filter weight touches every output position
+		delta.multiplyTransposeInto(columns, weightGradients);
+
+		if (!propagate)
+			return null;
+
+		weights.transposeMultiplyInto(delta, columnError);
+		col2im();
+		return inputError;
+	}
+
+	/**
+	 * Row (c, ky, kx) of the columns holds the input pixel at offset (ky, kx) of every output position, each
+	 * output row of it is a contiguous run of the input row
+	 */
+	private void im2col(double[] input)
+	{
+		double[] c = columns.buffer;
+		int row = 0;
+		for (int channel = 0; channel < channels; channel++)
+		{
+			for (int ky = 0; ky < kernel; ky++)
+			{
+				for (int kx = 0; kx < kernel; kx++, row++)
+				{
+					int start = row * positions;
+					for (int y = 0; y < outputHeight; y++)
+						System.arraycopy(input, (channel * height + y + ky) * width + kx, c, start + y * outputWidth, outputWidth);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sums the error of every column element back onto the input pixel it was copied from
+	 */
+	private void col2im()
+	{
+		Arrays.fill(inputError, 0);
+
+		double[] c = columnError.buffer;
+		int row = 0;
+		for (int channel = 0; channel < channels; channel++)
+		{
+			for (int ky = 0; ky < kernel; ky++)
+			{
+				for (int kx = 0; kx < kernel; kx++, row++)
+				{
+					int start = row * positions;
+					for (int y = 0; y < outputHeight; y++)
+					{
+						int target = (channel * height + y + ky) * width + kx;
+						int source = start + y * outputWidth;
+						for (int x = 0; x < outputWidth; x++)
+							inputError[target + x] += c[source + x];
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void update(double rate)
+	{
+		double[] w = weights.buffer, b = biases.buffer, gw = weightGradients.buffer, gb = biasGradients.buffer;
+
+		for (int i = 0; i < weights.length; i++)
+			w[weights.offset + i] -= rate * gw[i];
+		for (int i = 0; i < biases.length; i++)
+			b[biases.offset + i] -= rate * gb[i];
+	}
+
+	/**
+	 * Every output depends on channels * kernel² inputs & every input feeds filters * kernel² outputs
+	 */
+	@Override
+	public void initialize(WeightInitializer initializer, Random random)
+	{
+		initializer.initialize(weights, biases, channels * kernel * kernel, filters * kernel * kernel, random);
+	}
+
+	@Override
+	public Matrix[] getParameters()
+	{
+		return new Matrix[]{weights, biases};
+	}
+
+	@Override
+	public Matrix[] getGradients()
+	{
+		return new Matrix[]{weightGradients, biasGradients};
+	}
+
+	public ActivationFunction getActivation()
+	{
+		return activation;
+	}
+
+	public int getFilters()
+	{
+		return filters;
+	}
+
+	public int getKernel()
+	{
+		return kernel;
+	}
+
+	public int getOutputHeight()
+	{
+		return outputHeight;
+	}
+
+	public int getOutputWidth()
+	{
+		return outputWidth;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		var weights = new Matrix(this.weights.rows, this.weights.columns);
+		var biases = new Matrix(filters, 1);
+		weights.copyFrom(this.weights);
+		biases.copyFrom(this.biases);
+		return new ConvolutionLayer(channels, height, width, weights, biases, kernel, activation);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.CONVOLUTION;
+	}
+
+	@Override
+	int getByteCount()
+	{
+		return super.getByteCount() + 4 * Integer.BYTES + nameBytes(activation) + weights.BYTES + biases.BYTES;
+	}
+
+	@Override
+	void putBytes(ByteBuffer buffer)
+	{
+		super.putBytes(buffer);
+		buffer.putInt(channels);
+		buffer.putInt(height);
+		buffer.putInt(width);
+		buffer.putInt(kernel);
+		putName(buffer, activation);
+		weights.putBytes(buffer);
+		biases.putBytes(buffer);
+	}
+
+	static ConvolutionLayer fromByteBuffer(ByteBuffer buffer)
+	{
+		int channels = buffer.getInt();
+		int height = buffer.getInt();
+		int width = buffer.getInt();
+		int kernel = buffer.getInt();
+		String name = getName(buffer);
+		ActivationFunction activation = name.isEmpty() ? null : ActivationFunction.forName(name);
+
+		Matrix weights = Matrix.fromByteBuffer(buffer);
+		Matrix biases = Matrix.fromByteBuffer(buffer);
+		return new ConvolutionLayer(channels, height, width, weights, biases, kernel, activation);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Conv(" + filters + "x" + kernel + "x" + kernel + (activation == null ? "" : ", " + activation) + ")";
+	}
+}
@@ -2,10 +2,17 @@ package network;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Random;
 
 public class DeepNeuralNetwork
 {
@@ -15,8 +22,60 @@ public class DeepNeuralNetwork
 
 	protected ActivationFunction activationFunction = ActivationFunction.SIGMOID;
 	protected double learningRate = 0.1;
+	protected LearningRateSchedule learningRateSchedule = LearningRateSchedule.CONSTANT;
+	protected long trainedSamples;
 
+	// marks the optional training state stored after the parameters, older files simply end before it
+	private static final int TRAINING_STATE_MAGIC = 0x4C525331; // "LRS1"
+	private static final int TRAINING_STATE_BYTES = Integer.BYTES + Long.BYTES + Double.BYTES + LearningRateSchedule.BYTES;
+
+	// marks the optional fingerprint after the training state, a trailer so older readers still accept the files
+	private static final int FINGERPRINT_MAGIC = 0x46505231; // "FPR1"
+	private static final int FINGERPRINT_BYTES = Integer.BYTES + Long.BYTES;
+
+	// cache line size, also the widest SIMD register
+	private static final int OFF_HEAP_ALIGNMENT = 64;
+
+	/**
+	 * Layers with a smaller fraction of nonzero weights are multiplied in sparse form during inference
+	 */
+	public static final double SPARSE_DENSITY = 0.3;
+
+	/**
+	 * Inputs with a smaller fraction of nonzero values only touch the first layer's weight columns of those values
+	 */
+	public static final double INPUT_SPARSE_DENSITY = 0.5;
+
+	// gradient descent on the inputs in inverse()
+	private static final int INVERSE_STEPS = 60;
+	private static final int INVERSE_STARTS = 8;
+	private static final long INVERSE_SEED = 42;
+	private static final double INVERSE_RATE = 0.1;
+	private static final double INVERSE_BETA1 = 0.9, INVERSE_BETA2 = 0.999;
+	private static final double INVERSE_BRIGHTNESS_PENALTY = 1e-3;
+	private static final double INVERSE_START_MEAN = -2, INVERSE_START_DEVIATION = 2;
+	private static final double INVERSE_CLAMP = 0.01, INVERSE_RIDGE = 1e-3;
+
+	// bumped whenever the parameters change, so data derived from them can be cached
+	private volatile long parameterVersion;
+
+	// sparse form of the layers below SPARSE_DENSITY, null for dense layers, valid while sparseVersion matches
+	private volatile SparseMatrix[] sparseWeights;
+	private volatile long sparseVersion = -1;
+
+	// factorizations for the least squares inverse, valid while gramVersion matches
+	private volatile CholeskyDecomposition[] gramDecompositions;
+	private volatile long gramVersion = -1;
+
+	// content hash of the sizes & parameters, valid while fingerprintVersion matches
+	private volatile long fingerprint;
+	private volatile long fingerprintVersion = -1;
+
+	// every parameter lives in one array, laid out as all weights followed by all biases (the file order),
+	// the gradients of the last trained sample use the same layout
+	private final double[] parameters, gradients;
 	private final Matrix[] weights, biases;
+	private final Matrix[] weightGradients, biasGradients;
 
 	public DeepNeuralNetwork(int inputSize, int outputSize)
 	{
@@ -29,24 +88,72 @@ public class DeepNeuralNetwork
 		this.outputSize = outputSize;
 		this.hiddenSizes = hiddenSizes;
 
-		weights = new Matrix[hiddenSizes.length + 1];
-		biases = new Matrix[hiddenSizes.length + 1];
+		int layers = hiddenSizes.length + 1;
+
+		// size of every layer, input layer included
+		int[] sizes = new int[layers + 1];
+		sizes[0] = inputSize;
+		System.arraycopy(hiddenSizes, 0, sizes, 1, hiddenSizes.length);
+		sizes[layers] = outputSize;
+
+		int count = 0;
+		for (int i = 0; i < layers; i++)
+		{
+			count += sizes[i + 1] * sizes[i] + sizes[i + 1];
+		}
+
+		parameters = new double[count];
+		gradients = new double[count];
 
-		// Input Layer
-		weights[0] = Matrix.random(hiddenSizes[0], inputSize, -1, 1);
-		biases[0] = Matrix.random(hiddenSizes[0], 1, -1, 1);
+		weights = new Matrix[layers];
+		biases = new Matrix[layers];
+		weightGradients = new Matrix[layers];
+		biasGradients = new Matrix[layers];
 
-		// Hidden Layers
-		for (int i = 1; i < hiddenSizes.length; i++)
+		int offset = 0;
+		for (int i = 0; i < layers; i++)
 		{
-			weights[i] = Matrix.random(hiddenSizes[i], hiddenSizes[i - 1], -1, 1);
-			biases[i] = Matrix.random(hiddenSizes[i], 1, -1, 1);
+			weights[i] = Matrix.view(parameters, offset, sizes[i + 1], sizes[i]);
+			weightGradients[i] = Matrix.view(gradients, offset, sizes[i + 1], sizes[i]);
+			offset += weights[i].length;
 		}
+		for (int i = 0; i < layers; i++)
+		{
+			biases[i] = Matrix.view(parameters, offset, sizes[i + 1], 1);
+			biasGradients[i] = Matrix.view(gradients, offset, sizes[i + 1], 1);
+			offset += biases[i].length;
+		}
+
+		for (int i = 0; i < layers; i++)
+		{
+			weights[i].fillRandom(-1, 1);
+			biases[i].fillRandom(-1, 1);
+		}
+
+		BYTES = countBytes(hiddenSizes, weights, biases);
+	}
 
-		// Output Layer
-		weights[weights.length - 1] = Matrix.random(outputSize, hiddenSizes[hiddenSizes.length - 1], -1, 1);
-		biases[biases.length - 1] = Matrix.random(outputSize, 1, -1, 1);
+	/**
+	 * Creates a read only network around existing, usually off-heap, weight & bias matrices
+	 */
+	private DeepNeuralNetwork(int inputSize, int[] hiddenSizes, int outputSize, Matrix[] weights, Matrix[] biases)
+	{
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+		this.hiddenSizes = hiddenSizes;
+		this.weights = weights;
+		this.biases = biases;
 
+		parameters = null;
+		gradients = null;
+		weightGradients = null;
+		biasGradients = null;
+
+		BYTES = countBytes(hiddenSizes, weights, biases);
+	}
+
+	private static int countBytes(int[] hiddenSizes, Matrix[] weights, Matrix[] biases)
+	{
 		var byteCount = 0;
 		byteCount += 2 * Integer.BYTES; // inputSize & outputSize
 		byteCount += Integer.BYTES; // hiddenSizes.length
@@ -58,57 +165,348 @@ public class DeepNeuralNetwork
 			byteCount += biases[i].BYTES;
 		}
 
-		BYTES = byteCount;
+		return byteCount;
 	}
 
 	public double[] feed(double... inputRaw)
 	{
 		Matrix activation = Matrix.asColumn(inputRaw);
+		SparseMatrix[] sparse = getSparseWeights();
+
+		int[] nonZero = new int[inputRaw.length];
+		int nonZeroCount = nonZeroIndices(inputRaw, nonZero);
 
 		for (int i = 0; i < weights.length; i++)
 		{
 			// activation = activationFunction([weight] * previousActivation + biases)
-			activation = weights[i].multiply(activation).add(biases[i]).map(activationFunction.getFunction());
+			Matrix sum;
+			if (sparse[i] != null)
+				sum = sparse[i].multiply(activation);
+			else if (i == 0 && nonZeroCount < INPUT_SPARSE_DENSITY * inputRaw.length)
+				sum = weights[0].multiplySparseColumn(inputRaw, nonZero, nonZeroCount);
+			else
+				sum = weights[i].multiply(activation);
+
+			activation = sum.add(biases[i]).map(activationFunction.getFunction());
 		}
 
 		return activation.asColumn();
 	}
 
 	/**
-	 * Inverse function of feed
+	 * Feeds a whole batch through the network at once, each column of inputs is one sample
+	 *
+	 * @return the outputs, one column per sample
+	 */
+	public Matrix feedBatch(Matrix inputs)
+	{
+		if (inputs.rows != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + inputs.rows);
+
+		Matrix activation = inputs;
+		SparseMatrix[] sparse = getSparseWeights();
+
+		boolean sparseInput = SparseMatrix.density(inputs) < INPUT_SPARSE_DENSITY;
+
+		for (int i = 0; i < weights.length; i++)
+		{
+			Matrix sum;
+			if (sparse[i] != null)
+				sum = sparse[i].multiply(activation);
+			else if (i == 0 && sparseInput)
+				sum = weights[0].multiplySparseColumns(inputs);
+			else
+				sum = weights[i].multiply(activation);
+
+			activation = sum.addColumn(biases[i]).map(activationFunction.getFunction());
+		}
+
+		return activation;
+	}
+
+	/**
+	 * Sparse form of every layer whose weight density is below SPARSE_DENSITY, rebuilt after the parameters change
+	 */
+	private SparseMatrix[] getSparseWeights()
+	{
+		long version = parameterVersion;
+		SparseMatrix[] sparse = sparseWeights;
+
+		if (sparseVersion != version || sparse == null)
+		{
+			sparse = new SparseMatrix[weights.length];
+			for (int i = 0; i < weights.length; i++)
+			{
+				if (SparseMatrix.density(weights[i]) < SPARSE_DENSITY)
+				{
+					sparse[i] = SparseMatrix.fromDense(weights[i]);
+				}
+			}
+
+			sparseWeights = sparse;
+			sparseVersion = version;
+		}
+
+		return sparse;
+	}
+
+	/**
+	 * An input the network maps close to the given output, the digit the network "dreams" for it
 	 */
 	public double[] inverse(double... output)
 	{
-		Matrix activation = Matrix.asColumn(output);
+		if (output.length != outputSize)
+			throw new IllegalArgumentException("Expected " + outputSize + " outputs, got " + output.length);
+
+		return inverse(Matrix.asColumn(output)).asColumn();
+	}
+
+	/**
+	 * The prototype input of every output, column i is the input for the one-hot output i
+	 */
+	public Matrix prototypes()
+	{
+		var targets = new Matrix(outputSize, outputSize);
+		for (int i = 0; i < outputSize; i++)
+			targets.set(i, i, 1);
+
+		return inverse(targets);
+	}
+
+	/**
+	 * Batched inverse, every column of targets is an output to find an input for. The layers shrink towards the
+	 * output so there is no unique inverse; instead inputs are optimized by gradient descent on the cross entropy
+	 * to the target for sigmoid outputs, the squared error for any other activation, with a small penalty on bright
+	 * pixels. Inputs are sigmoid(z) so they stay in [0, 1].
+	 * Saturated networks have flat regions, so every target is optimized from several seeded random images in the
+	 * same batch & the best one is kept
+	 */
+	public Matrix inverse(Matrix targets)
+	{
+		if (targets.rows != outputSize)
+			throw new IllegalArgumentException("Expected " + outputSize + " outputs, got " + targets.rows);
 
-		// activation = activationFunction([weight] * previousActivation + biases)
+		int columns = targets.columns * INVERSE_STARTS;
 
-		// prevActivation = [weight]^-1 * (activation - biases)
+		// start j of target t is column j * targets.columns + t
+		var expected = new Matrix(outputSize, columns);
+		for (int r = 0; r < outputSize; r++)
+			for (int c = 0; c < columns; c++)
+				expected.set(r, c, targets.get(r, c % targets.columns));
+
+		var random = new Random(INVERSE_SEED);
+		var z = new Matrix(inputSize, columns);
+		for (int k = 0; k < z.length; k++)
+			z.buffer[k] = INVERSE_START_MEAN + INVERSE_START_DEVIATION * random.nextGaussian();
+
+		// adam moments of z
+		double[] m = new double[z.length], v = new double[z.length];
+
+		// the cross entropy only has the simple gradient activation - target for sigmoid outputs
+		boolean crossEntropy = activationFunction == ActivationFunction.SIGMOID;
+
+		var input = new Matrix(inputSize, columns);
+		Matrix[] sums = new Matrix[weights.length];
+		Matrix[] activations = new Matrix[weights.length + 1];
+
+		for (int step = 1; ; step++)
+		{
+			for (int k = 0; k < z.length; k++)
+				input.buffer[k] = 1 / (1 + Math.exp(-z.buffer[k]));
+
+			activations[0] = input;
+			for (int i = 0; i < weights.length; i++)
+			{
+				sums[i] = weights[i].multiply(activations[i]).addColumn(biases[i]);
+				activations[i + 1] = sums[i].map(activationFunction.getFunction());
+			}
+
+			if (step > INVERSE_STEPS)
+				break;
+
+			// back propagate to the inputs without transposed copies of the weights, the output error is the
+			// cross entropy gradient since the squared error's vanishes for the saturated outputs of other classes
+			Matrix delta = activations[weights.length].subtract(expected);
+			if (!crossEntropy)
+				delta = delta.dot(sums[weights.length - 1].map(activationFunction.getDerivative()));
+			for (int i = weights.length - 1; i > 0; i--)
+				delta = weights[i].transposeMultiply(delta).dot(sums[i - 1].map(activationFunction.getDerivative()));
+			Matrix error = weights[0].transposeMultiply(delta);
+
+			double correction1 = 1 - Math.pow(INVERSE_BETA1, step);
+			double correction2 = 1 - Math.pow(INVERSE_BETA2, step);
+			for (int k = 0; k < z.length; k++)
+			{
+				double x = input.buffer[k];
+				double gradient = (error.buffer[k] + INVERSE_BRIGHTNESS_PENALTY * x) * x * (1 - x);
+
+				m[k] = INVERSE_BETA1 * m[k] + (1 - INVERSE_BETA1) * gradient;
+				v[k] = INVERSE_BETA2 * v[k] + (1 - INVERSE_BETA2) * gradient * gradient;
+				z.buffer[k] -= INVERSE_RATE * (m[k] / correction1) / (Math.sqrt(v[k] / correction2) + 1e-8);
+			}
+		}
+
+		// keep the start with the lowest loss of every target
+		Matrix output = activations[weights.length];
+		var result = new Matrix(inputSize, targets.columns);
+		for (int t = 0; t < targets.columns; t++)
+		{
+			int best = t;
+			double bestLoss = Double.POSITIVE_INFINITY;
+			for (int c = t; c < columns; c += targets.columns)
+			{
+				double loss = 0;
+				for (int r = 0; r < outputSize; r++)
+				{
+					double y = expected.get(r, c);
+					if (crossEntropy)
+					{
+						double a = Math.min(Math.max(output.get(r, c), 1e-12), 1 - 1e-12);
+						loss -= y * Math.log(a) + (1 - y) * Math.log(1 - a);
+					} else
+						loss += (output.get(r, c) - y) * (output.get(r, c) - y);
+				}
+
+				if (loss < bestLoss)
+				{
+					bestLoss = loss;
+					best = c;
+				}
+			}
+
+			for (int k = 0; k < inputSize; k++)
+				result.set(k, t, input.get(k, best));
+		}
 
+		return result;
+	}
+
+	/**
+	 * Inverts layer by layer from the output, the inverse of the activation minus the bias & then the minimum norm
+	 * solution W^T (W W^T + lambda I)^-1 r, clamped back into the activation's range. Deterministic & cheap, but
+	 * the clamping makes it far less faithful than {@link #inverse(Matrix)}. Only the built in activations can be
+	 * inverted
+	 */
+	public Matrix leastSquaresInverse(Matrix targets)
+	{
+		if (activationFunction != ActivationFunction.SIGMOID && activationFunction != ActivationFunction.TANH
+			&& activationFunction != ActivationFunction.RELU && activationFunction != ActivationFunction.IDENTITY)
+			throw new IllegalStateException("Can't invert the " + activationFunction + " activation function");
+
+		CholeskyDecomposition[] gram = getGramDecompositions();
+
+		Matrix activation = targets;
 		for (int i = weights.length - 1; i >= 0; i--)
 		{
-			activation = weights[i].transpose().multiply(activation.subtract(biases[i])).map(activationFunction.getFunction());
+			var residual = new Matrix(activation.rows, activation.columns);
+			for (int r = 0; r < activation.rows; r++)
+			{
+				for (int c = 0; c < activation.columns; c++)
+				{
+					residual.set(r, c, undoActivation(clampToActivation(activation.get(r, c))) - biases[i].get(r, 0));
+				}
+			}
+
+			activation = weights[i].transposeMultiply(gram[i].solve(residual));
+			for (int k = 0; k < activation.length; k++)
+				activation.buffer[k] = i == 0 ? Math.min(Math.max(activation.buffer[k], 0), 1) : clampToActivation(activation.buffer[k]);
 		}
 
-		return activation.asColumn();
+		return activation;
 	}
 
+	/**
+	 * Clamps into the range of the activation, INVERSE_CLAMP away from the bounds sigmoid & tanh only reach at
+	 * infinity
+	 */
+	private double clampToActivation(double a)
+	{
+		if (activationFunction == ActivationFunction.SIGMOID)
+			return Math.min(Math.max(a, INVERSE_CLAMP), 1 - INVERSE_CLAMP);
+		if (activationFunction == ActivationFunction.TANH)
+			return Math.min(Math.max(a, INVERSE_CLAMP - 1), 1 - INVERSE_CLAMP);
+		if (activationFunction == ActivationFunction.RELU)
+			return Math.max(a, 0);
+		return a;
+	}
+
+	/**
+	 * The weighted sum giving the clamped activation, 0 for relu's 0
+	 */
+	private double undoActivation(double a)
+	{
+		if (activationFunction == ActivationFunction.SIGMOID)
+			return Math.log(a / (1 - a));
+		if (activationFunction == ActivationFunction.TANH)
+			return 0.5 * Math.log((1 + a) / (1 - a));
+		return a;
+	}
+
+	/**
+	 * Cholesky decomposition of W W^T + lambda I of every layer, computed once per parameter version
+	 */
+	private CholeskyDecomposition[] getGramDecompositions()
+	{
+		long version = parameterVersion;
+		CholeskyDecomposition[] gram = gramDecompositions;
+
+		if (gramVersion != version || gram == null)
+		{
+			gram = new CholeskyDecomposition[weights.length];
+			for (int i = 0; i < weights.length; i++)
+			{
+				Matrix product = weights[i].multiply(weights[i].transpose());
+				for (int r = 0; r < product.rows; r++)
+					product.set(r, r, product.get(r, r) + INVERSE_RIDGE);
+				gram[i] = product.cholesky();
+			}
+
+			gramDecompositions = gram;
+			gramVersion = version;
+		}
+
+		return gram;
+	}
 
 	public Matrix train(double[] trainingData, double[] expected)
 	{
+		if (parameters == null)
+			throw new UnsupportedOperationException("Off-heap networks are read only, train a copy() instead");
+
+		var step = new NetworkEvents.TrainStepEvent();
+		step.begin();
+
 		Matrix[] activations = new Matrix[weights.length + 1];
 		Matrix[] weightedSums = new Matrix[weights.length + 1];
 
 		activations[0] = Matrix.asColumn(trainingData);
 		weightedSums[0] = Matrix.asColumn(trainingData);
 
+		// most pixels of a digit are zero, the first layer only has to touch the weight columns of the others
+		int[] nonZero = new int[trainingData.length];
+		int nonZeroCount = nonZeroIndices(trainingData, nonZero);
+		boolean sparseInput = nonZeroCount < INPUT_SPARSE_DENSITY * trainingData.length;
+
 		// feed forward
 		for (int i = 0; i < weights.length; i++)
 		{
-			weightedSums[i + 1] = weights[i].multiply(activations[i]).add(biases[i]);
+			var forward = new NetworkEvents.LayerPhaseEvent();
+			forward.begin();
+
+			Matrix sum = i == 0 && sparseInput
+				? weights[0].multiplySparseColumn(trainingData, nonZero, nonZeroCount)
+				: weights[i].multiply(activations[i]);
+
+			weightedSums[i + 1] = sum.add(biases[i]);
 			activations[i + 1] = weightedSums[i + 1].map(activationFunction.getFunction());
+
+			// multiply-add per used weight, bias & activation per row
+			long used = i == 0 && sparseInput ? (long) weights[0].rows * nonZeroCount : weights[i].length;
+			commit(forward, NetworkEvents.FORWARD, i, weights[i], 2L * used + 2L * weights[i].rows);
 		}
 
+		double rate = learningRate * learningRateSchedule.factor(trainedSamples++);
+
 		// Backpropagation
 		Matrix expectedMatrix = Matrix.asColumn(expected);
 		Matrix error = activations[weights.length].subtract(expectedMatrix).scale(2);
@@ -117,22 +515,356 @@ public class DeepNeuralNetwork
 
 		for (int i = weights.length - 1; i >= 0; i--)
 		{
+			var backward = new NetworkEvents.LayerPhaseEvent();
+			backward.begin();
+
+			boolean sparse = i == 0 && sparseInput;
+			long used = sparse ? (long) weights[0].rows * nonZeroCount : weights[i].length;
+
 			Matrix delActivationToSum = weightedSums[i + 1].map(activationFunction.getDerivative());
-			Matrix delSumToWeight = activations[i].transpose();
 
 			Matrix delBias = delActivationToSum.dot(error);
-			Matrix delWeight = delBias.multiply(delSumToWeight);
+			biasGradients[i].copyFrom(delBias);
+
+			if (sparse)
+			{
+				sparseOuterProduct(delBias, trainingData, nonZero, nonZeroCount);
+			} else
+			{
+				Matrix delSumToWeight = activations[i].transpose();
+				delBias.multiplyInto(delSumToWeight, weightGradients[i]);
+			}
+
+			// derivative & product per row, outer product per used weight
+			commit(backward, NetworkEvents.BACKWARD, i, weights[i], used + 2L * weights[i].rows);
+
+			// the error of the previous layer's activations, through the weights before this step changes them,
+			// the error of the input layer is never used
+			Matrix previousError = null;
+			if (i > 0)
+			{
+				var propagate = new NetworkEvents.LayerPhaseEvent();
+				propagate.begin();
+
+				previousError = weights[i].transposeMultiply(delBias);
 
-			biases[i] = biases[i].subtract(delBias.scale(learningRate));
-			weights[i] = weights[i].subtract(delWeight.scale(learningRate));
+				commit(propagate, NetworkEvents.PROPAGATE, i, weights[i], 2L * weights[i].length);
+			}
+
+			var update = new NetworkEvents.LayerPhaseEvent();
+			update.begin();
+
+			if (sparse)
+				descendColumns(weights[0], rate, nonZero, nonZeroCount);
+			else
+				descend(weights[i], rate);
+			descend(biases[i], rate);
+
+			commit(update, NetworkEvents.UPDATE, i, weights[i], 2L * used + 2L * weights[i].rows);
 
-			error = weights[i].transpose().multiply(error);
+			error = previousError;
+		}
+
+		parameterVersion++;
+
+		step.end();
+		if (step.shouldCommit())
+		{
+			step.layers = weights.length;
+			step.learningRate = rate;
+			step.commit();
 		}
 
 		// return cost
 		return activations[weights.length].subtract(expectedMatrix).map(x -> x * x);
 	}
 
+	/**
+	 * Moves the parameters of the view against their gradient, in place
+	 */
+	private void descend(Matrix view, double rate)
+	{
+		int start = view.getOffset();
+		int end = start + view.length;
+		for (int k = start; k < end; k++)
+		{
+			parameters[k] -= rate * gradients[k];
+		}
+	}
+
+	/**
+	 * Like descend, but only for the weight columns of the given nonzero inputs
+	 */
+	private void descendColumns(Matrix view, double rate, int[] nonZero, int count)
+	{
+		for (int r = 0; r < view.rows; r++)
+		{
+			int row = view.getOffset() + r * view.columns;
+			for (int n = 0; n < count; n++)
+			{
+				int k = row + nonZero[n];
+				parameters[k] -= rate * gradients[k];
+			}
+		}
+	}
+
+	/**
+	 * First layer weight gradient, delBias * input^T, where only the columns of nonzero inputs are nonzero
+	 */
+	private void sparseOuterProduct(Matrix delBias, double[] input, int[] nonZero, int count)
+	{
+		Matrix gradient = weightGradients[0];
+		int start = gradient.getOffset();
+		Arrays.fill(gradients, start, start + gradient.length, 0);
+
+		for (int r = 0; r < gradient.rows; r++)
+		{
+			double value = delBias.get(r, 0);
+			int row = start + r * gradient.columns;
+			for (int n = 0; n < count; n++)
+			{
+				int k = nonZero[n];
+				gradients[row + k] = value * input[k];
+			}
+		}
+	}
+
+	/**
+	 * Writes the indices of the nonzero values in ascending order
+	 *
+	 * @return the amount of nonzero values
+	 */
+	private static int nonZeroIndices(double[] values, int[] indices)
+	{
+		int count = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			if (values[i] != 0)
+			{
+				indices[count++] = i;
+			}
+		}
+		return count;
+	}
+
+	private static void commit(NetworkEvents.LayerPhaseEvent event, String phase, int layer, Matrix weight, long flops)
+	{
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.phase = phase;
+			event.layer = layer;
+			event.rows = weight.rows;
+			event.columns = weight.columns;
+			event.flops = flops;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates a deep copy of this network, including its activation function & learning rate
+	 */
+	public DeepNeuralNetwork copy()
+	{
+		DeepNeuralNetwork copy = new DeepNeuralNetwork(inputSize, hiddenSizes.clone(), outputSize);
+		copy.copyParametersFrom(this);
+		copy.activationFunction = activationFunction;
+		copy.learningRate = learningRate;
+		copy.learningRateSchedule = learningRateSchedule;
+		copy.trainedSamples = trainedSamples;
+		return copy;
+	}
+
+	/**
+	 * Overwrites the weights & biases of this network with the ones of another network of the same shape
+	 */
+	public void copyParametersFrom(DeepNeuralNetwork other)
+	{
+		if (inputSize != other.inputSize || outputSize != other.outputSize || !Arrays.equals(hiddenSizes, other.hiddenSizes))
+			throw new IllegalArgumentException("Cannot copy parameters between networks of different shapes");
+
+		if (parameters != null && other.parameters != null)
+		{
+			System.arraycopy(other.parameters, 0, parameters, 0, parameters.length);
+		} else
+		{
+			for (int i = 0; i < weights.length; i++)
+			{
+				weights[i].copyFrom(other.weights[i]);
+				biases[i].copyFrom(other.biases[i]);
+			}
+		}
+
+		parametersChanged();
+	}
+
+	/**
+	 * Reinitializes every layer with the same initializer, reproducibly for the same seed
+	 */
+	public void initialize(WeightInitializer initializer, long seed)
+	{
+		var random = new Random(seed);
+		for (int i = 0; i < weights.length; i++)
+			initializeLayer(i, initializer, random);
+	}
+
+	/**
+	 * Reinitializes the weights & biases of one layer, so layers with different activations can start differently
+	 */
+	public void initializeLayer(int layer, WeightInitializer initializer, Random random)
+	{
+		initializer.initialize(weights[layer], biases[layer], weights[layer].columns, weights[layer].rows, random);
+		parametersChanged();
+	}
+
+	/**
+	 * Has to be called after writing to the parameters from outside, so cached data derived from them is rebuilt
+	 */
+	public void parametersChanged()
+	{
+		parameterVersion++;
+	}
+
+	/**
+	 * Changes every time the parameters change
+	 */
+	public long getParameterVersion()
+	{
+		return parameterVersion;
+	}
+
+	/**
+	 * 64 bit xxHash of the sizes & every parameter, identical networks have identical fingerprints wherever
+	 * their parameters are stored. Computed once per parameter version, without copying anything
+	 */
+	public long getFingerprint()
+	{
+		long version = parameterVersion;
+		if (fingerprintVersion == version)
+			return fingerprint;
+
+		var hash = new Fingerprint();
+		hash.update(inputSize);
+		hash.update(outputSize);
+		hash.update(hiddenSizes.length);
+		for (int hiddenSize : hiddenSizes)
+			hash.update(hiddenSize);
+		for (Matrix weight : weights)
+			hash.update(weight);
+		for (Matrix bias : biases)
+			hash.update(bias);
+
+		long value = hash.getValue();
+		fingerprint = value;
+		fingerprintVersion = version;
+		return value;
+	}
+
+	/**
+	 * Whether the parameters live outside the java heap, such networks can only be used for inference
+	 */
+	public boolean isOffHeap()
+	{
+		return parameters == null;
+	}
+
+	/**
+	 * Copies this network into one 64 byte aligned block of native memory, keeping it out of the heap the GC scans
+	 */
+	public DeepNeuralNetwork offHeapCopy()
+	{
+		int count = 0;
+		for (int i = 0; i < weights.length; i++)
+		{
+			count += weights[i].length + biases[i].length;
+		}
+
+		// the aligned slice drops up to one alignment unit at each end
+		int bytes = (count * Double.BYTES + OFF_HEAP_ALIGNMENT - 1) / OFF_HEAP_ALIGNMENT * OFF_HEAP_ALIGNMENT;
+		DoubleBuffer values = ByteBuffer.allocateDirect(bytes + OFF_HEAP_ALIGNMENT)
+			.alignedSlice(OFF_HEAP_ALIGNMENT)
+			.order(ByteOrder.nativeOrder())
+			.asDoubleBuffer();
+
+		Matrix[] weights = new Matrix[this.weights.length];
+		Matrix[] biases = new Matrix[this.biases.length];
+
+		// same layout as the on heap parameters
+		int offset = 0;
+		for (int i = 0; i < weights.length; i++)
+		{
+			weights[i] = Matrix.view(values, offset, this.weights[i].rows, this.weights[i].columns);
+			offset += weights[i].length;
+		}
+		for (int i = 0; i < biases.length; i++)
+		{
+			biases[i] = Matrix.view(values, offset, this.biases[i].rows, 1);
+			offset += biases[i].length;
+		}
+
+		var copy = new DeepNeuralNetwork(inputSize, hiddenSizes.clone(), outputSize, weights, biases);
+		copy.copyParametersFrom(this);
+		copy.activationFunction = activationFunction;
+		copy.learningRate = learningRate;
+		copy.learningRateSchedule = learningRateSchedule;
+		copy.trainedSamples = trainedSamples;
+		return copy;
+	}
+
+	/**
+	 * All weights & biases of the network in one array, writes to it change the network
+	 */
+	public double[] getParameters()
+	{
+		if (parameters == null)
+			throw new UnsupportedOperationException("Off-heap networks have no parameter array");
+		return parameters;
+	}
+
+	/**
+	 * Gradients of the last trained sample, in the same layout as {@link #getParameters()}
+	 */
+	public double[] getGradients()
+	{
+		if (gradients == null)
+			throw new UnsupportedOperationException("Off-heap networks have no gradient array");
+		return gradients;
+	}
+
+	public int getParameterCount()
+	{
+		int count = 0;
+		for (int i = 0; i < weights.length; i++)
+		{
+			count += weights[i].length + biases[i].length;
+		}
+		return count;
+	}
+
+	/**
+	 * Amount of weight layers, one more than the amount of hidden layers
+	 */
+	public int getLayerCount()
+	{
+		return weights.length;
+	}
+
+	/**
+	 * View of the weights of the given layer, shaped (output size x input size)
+	 */
+	public Matrix getWeights(int layer)
+	{
+		return weights[layer];
+	}
+
+	/**
+	 * View of the biases of the given layer as a column
+	 */
+	public Matrix getBiases(int layer)
+	{
+		return biases[layer];
+	}
+
 	public int getInputSize()
 	{
 		return inputSize;
@@ -150,7 +882,7 @@ public class DeepNeuralNetwork
 
 	public void putBytes(ByteBuffer buffer)
 	{
-		if (buffer.capacity() < BYTES)
+		if (buffer.capacity() < BYTES + TRAINING_STATE_BYTES + FINGERPRINT_BYTES)
 		{
 			throw new IllegalArgumentException("Buffer capacity is too small");
 		}
@@ -170,6 +902,15 @@ public class DeepNeuralNetwork
 		{
 			bias.putBytes(buffer);
 		}
+
+		// training state
+		buffer.putInt(TRAINING_STATE_MAGIC);
+		buffer.putLong(trainedSamples);
+		buffer.putDouble(learningRate);
+		learningRateSchedule.putBytes(buffer);
+
+		buffer.putInt(FINGERPRINT_MAGIC);
+		buffer.putLong(getFingerprint());
 	}
 
 	public static DeepNeuralNetwork fromBytes(ByteBuffer buffer)
@@ -185,18 +926,99 @@ public class DeepNeuralNetwork
 		DeepNeuralNetwork network = new DeepNeuralNetwork(inputSize, hiddenSizes, outputSize);
 		for (int i = 0; i < network.weights.length; i++)
 		{
-			network.weights[i] = Matrix.fromByteBuffer(buffer);
+			network.weights[i].readFromByteBuffer(buffer);
 		}
 		for (int i = 0; i < network.biases.length; i++)
 		{
-			network.biases[i] = Matrix.fromByteBuffer(buffer);
+			network.biases[i].readFromByteBuffer(buffer);
 		}
+		network.parametersChanged();
+
+		network.readTrainingState(buffer);
+		network.verifyFingerprint(buffer);
 		return network;
 	}
 
+	// training state, only present in files written since schedules were added
+	private void readTrainingState(ByteBuffer buffer)
+	{
+		if (buffer.remaining() >= TRAINING_STATE_BYTES && buffer.getInt(buffer.position()) == TRAINING_STATE_MAGIC)
+		{
+			buffer.getInt();
+			trainedSamples = buffer.getLong();
+			learningRate = buffer.getDouble();
+			learningRateSchedule = LearningRateSchedule.fromByteBuffer(buffer);
+		}
+	}
+
+	// fingerprint, only present in files written since fingerprints were added
+	private void verifyFingerprint(ByteBuffer buffer)
+	{
+		if (buffer.remaining() >= FINGERPRINT_BYTES && buffer.getInt(buffer.position()) == FINGERPRINT_MAGIC)
+		{
+			buffer.getInt();
+			long stored = buffer.getLong();
+			if (stored != getFingerprint())
+				throw new IllegalArgumentException("Corrupted network, stored fingerprint " + Long.toHexString(stored) + " doesn't match the parameters' " + Long.toHexString(getFingerprint()));
+		}
+	}
+
+	/**
+	 * The fingerprint stored in the file, read without loading the parameters. Older files without one are
+	 * loaded & hashed instead
+	 */
+	public static long readFingerprint(Path path) throws IOException
+	{
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES);
+			channel.read(header, 0);
+			header.flip();
+
+			if (header.remaining() == header.capacity())
+			{
+				int inputSize = header.getInt();
+				int outputSize = header.getInt();
+				int hiddenLayers = header.getInt();
+
+				if (hiddenLayers >= 0)
+				{
+					ByteBuffer sizes = ByteBuffer.allocate(hiddenLayers * Integer.BYTES);
+					channel.read(sizes, header.capacity());
+					sizes.flip();
+
+					if (sizes.remaining() == sizes.capacity())
+					{
+						// every matrix is its two sizes & its values
+						long position = header.capacity() + sizes.capacity();
+						int previous = inputSize;
+						for (int i = 0; i <= hiddenLayers; i++)
+						{
+							int size = i < hiddenLayers ? sizes.getInt() : outputSize;
+							position += 2 * (2L * Integer.BYTES) + ((long) size * previous + size) * Double.BYTES;
+							previous = size;
+						}
+
+						position += TRAINING_STATE_BYTES;
+						ByteBuffer trailer = ByteBuffer.allocate(FINGERPRINT_BYTES);
+						if (position + FINGERPRINT_BYTES <= channel.size())
+						{
+							channel.read(trailer, position);
+							trailer.flip();
+							if (trailer.remaining() == FINGERPRINT_BYTES && trailer.getInt() == FINGERPRINT_MAGIC)
+								return trailer.getLong();
+						}
+					}
+				}
+			}
+		}
+
+		return readFromFile(path).getFingerprint();
+	}
+
 	public byte[] getBytes()
 	{
-		ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+		ByteBuffer buffer = ByteBuffer.allocate(BYTES + TRAINING_STATE_BYTES + FINGERPRINT_BYTES);
 		putBytes(buffer);
 		return buffer.array();
 	}
@@ -208,17 +1030,110 @@ public class DeepNeuralNetwork
 
 	public void writeToFile(Path path) throws IOException
 	{
-		Files.write(path, getBytes());
+		var event = new NetworkEvents.ModelFileEvent();
+		event.begin();
+
+		byte[] bytes = getBytes();
+
+		// write next to the target & rename, so readers & watchers never see a partially written network
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temporary, bytes);
+		try
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		commit(event, "write", path, bytes.length);
 	}
 
 	public static DeepNeuralNetwork readFromFile(String path) throws IOException
 	{
-		return fromBytes(ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))));
+		return readFromFile(Paths.get(path));
 	}
 
 	public static DeepNeuralNetwork readFromFile(Path path) throws IOException
 	{
-		return fromBytes(ByteBuffer.wrap(Files.readAllBytes(path)));
+		var event = new NetworkEvents.ModelFileEvent();
+		event.begin();
+
+		byte[] bytes = Files.readAllBytes(path);
+		DeepNeuralNetwork network = fromBytes(ByteBuffer.wrap(bytes));
+
+		commit(event, "read", path, bytes.length);
+		return network;
+	}
+
+	/**
+	 * Memory maps the file read only and uses the weights in place, several processes mapping the same file
+	 * share its pages and nothing is copied onto the heap
+	 */
+	public static DeepNeuralNetwork mapFromFile(Path path) throws IOException
+	{
+		var event = new NetworkEvents.ModelFileEvent();
+		event.begin();
+
+		ByteBuffer bytes;
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		int inputSize = bytes.getInt();
+		int outputSize = bytes.getInt();
+		int[] hiddenSizes = new int[bytes.getInt()];
+		for (int i = 0; i < hiddenSizes.length; i++)
+		{
+			hiddenSizes[i] = bytes.getInt();
+		}
+
+		Matrix[] weights = new Matrix[hiddenSizes.length + 1];
+		Matrix[] biases = new Matrix[hiddenSizes.length + 1];
+		for (int i = 0; i < weights.length; i++)
+		{
+			weights[i] = mapMatrix(bytes);
+		}
+		for (int i = 0; i < biases.length; i++)
+		{
+			biases[i] = mapMatrix(bytes);
+		}
+
+		var network = new DeepNeuralNetwork(inputSize, hiddenSizes, outputSize, weights, biases);
+		network.readTrainingState(bytes);
+		network.verifyFingerprint(bytes);
+
+		commit(event, "map", path, bytes.capacity());
+		return network;
+	}
+
+	private static Matrix mapMatrix(ByteBuffer bytes)
+	{
+		if (bytes.remaining() < Integer.BYTES * 2)
+			throw new IllegalArgumentException("Malformed bytes for network.Matrix");
+
+		int rows = bytes.getInt();
+		int columns = bytes.getInt();
+
+		if (bytes.remaining() < Double.BYTES * rows * columns)
+			throw new IllegalArgumentException("Malformed bytes for network.Matrix");
+
+		Matrix matrix = Matrix.view(bytes.slice(bytes.position(), rows * columns * Double.BYTES).asDoubleBuffer(), 0, rows, columns);
+		bytes.position(bytes.position() + rows * columns * Double.BYTES);
+		return matrix;
+	}
+
+	private static void commit(NetworkEvents.ModelFileEvent event, String operation, Path path, long bytes)
+	{
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.operation = operation;
+			event.path = path.toString();
+			event.bytes = bytes;
+			event.commit();
+		}
 	}
 
 	public static void main(String[] args)
@@ -257,6 +1172,40 @@ public class DeepNeuralNetwork
 		this.learningRate = learningRate;
 	}
 
+	public final LearningRateSchedule getLearningRateSchedule()
+	{
+		return learningRateSchedule;
+	}
+
+	/**
+	 * Sets the schedule scaling the learning rate over the course of training
+	 */
+	public final void setLearningRateSchedule(LearningRateSchedule learningRateSchedule)
+	{
+		this.learningRateSchedule = learningRateSchedule;
+	}
+
+	/**
+	 * The learning rate the next trained sample will use
+	 */
+	public final double getEffectiveLearningRate()
+	{
+		return learningRate * learningRateSchedule.factor(trainedSamples);
+	}
+
+	/**
+	 * Amount of samples this network has been trained on, drives the learning rate schedule
+	 */
+	public final long getTrainedSamples()
+	{
+		return trainedSamples;
+	}
+
+	public final void setTrainedSamples(long trainedSamples)
+	{
+		this.trainedSamples = trainedSamples;
+	}
+
 	public static int largestIndex(double[] arr)
 	{
 		int max = 0;
@@ -272,12 +1221,30 @@ public class DeepNeuralNetwork
 		return max;
 	}
 
+	/**
+	 * Same sizes & bitwise identical parameters, the fingerprints are compared first
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (!(o instanceof DeepNeuralNetwork))
+			return false;
+
+		var other = (DeepNeuralNetwork) o;
+		return inputSize == other.inputSize
+			&& outputSize == other.outputSize
+			&& Arrays.equals(hiddenSizes, other.hiddenSizes)
+			&& getFingerprint() == other.getFingerprint()
+			&& Arrays.equals(weights, other.weights)
+			&& Arrays.equals(biases, other.biases);
+	}
+
 	@Override
 	public int hashCode()
 	{
-		return Arrays.deepHashCode(new Object[]{
-			weights,
-			biases
-		});
+		long fingerprint = getFingerprint();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
 	}
 }
@@ -0,0 +1,217 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Fully connected layer, output = activation(weights * input + biases). The activation is fused into the same
+ * pass over the rows, so the weighted sums are never written out & read back before activating them
+ */
+public final class DenseLayer extends Layer
+{
+	private final Matrix weights, biases;
+	private final Matrix weightGradients, biasGradients;
+
+	// null for a linear layer
+	private final ActivationFunction activation;
+	private final Function<Double, Double> function, derivative;
+
+	private double[] input;
+	private final double[] sums, output, delta, inputError;
+
+	/**
+	 * A layer with random weights & biases between -1 and 1
+	 *
+	 * @param activation applied to every output, null for none
+	 */
+	public DenseLayer(int inputSize, int outputSize, ActivationFunction activation)
+	{
+		this(Matrix.random(outputSize, inputSize, -1, 1), Matrix.random(outputSize, 1, -1, 1), activation);
+	}
+
+	DenseLayer(Matrix weights, Matrix biases, ActivationFunction activation)
+	{
+		super(weights.columns, weights.rows);
+
+		if (biases.rows != weights.rows || biases.columns != 1)
+			throw new IllegalArgumentException("Expected " + weights.rows + "x1 biases, got " + biases.rows + "x" + biases.columns);
+		if (weights.isDirect() || biases.isDirect())
+			throw new IllegalArgumentException("Layers need heap matrices");
+
+		this.weights = weights;
+		this.biases = biases;
+		this.activation = activation;
+		this.function = activation == null ? null : activation.getFunction();
+		this.derivative = activation == null ? null : activation.getDerivative();
+
+		weightGradients = new Matrix(outputSize, inputSize);
+		biasGradients = new Matrix(outputSize, 1);
+
+		sums = new double[outputSize];
+		output = new double[outputSize];
+		delta = new double[outputSize];
+		inputError = new double[inputSize];
+	}
+
+	@Override
+	Layer withActivation(ActivationFunction activation)
+	{
+		return this.activation == null ? new DenseLayer(weights, biases, activation) : null;
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		this.input = input;
+
+		double[] w = weights.buffer, b = biases.buffer;
+		int wOffset = weights.offset, bOffset = biases.offset;
+
+		for (int r = 0; r < outputSize; r++)
+		{
+			int row = wOffset + r * inputSize;
+			double sum = b[bOffset + r];
+			for (int c = 0; c < inputSize; c++)
+				sum += w[row + c] * input[c];
+
+			sums[r] = sum;
+			output[r] = function == null ? sum : function.apply(sum);
+		}
+
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		double[] w = weights.buffer, gw = weightGradients.buffer, gb = biasGradients.buffer;
+		int wOffset = weights.offset;
+
+		for (int r = 0; r < outputSize; r++)
+		{
+			double d = derivative == null ? outputError[r] : outputError[r] * derivative.apply(sums[r]);
+			delta[r] = d;
+			gb[r] = d;
+
+			int row = r * inputSize;
+			for (int c = 0; c < inputSize; c++)
+				gw[row + c] = d * input[c];
+		}
+
+		if (!propagate)
+			return null;
+
+		// weights^T * delta, accumulated row by row so the weights are read sequentially
+		Arrays.fill(inputError, 0);
+		for (int r = 0; r < outputSize; r++)
+		{
+			double d = delta[r];
+			if (d == 0)
+				continue;
+
+			int row = wOffset + r * inputSize;
+			for (int c = 0; c < inputSize; c++)
+				inputError[c] += w[row + c] * d;
+		}
+
+		return inputError;
+	}
+
+	@Override
+	public void update(double rate)
+	{
+		double[] w = weights.buffer, b = biases.buffer, gw = weightGradients.buffer, gb = biasGradients.buffer;
+
+		for (int i = 0; i < weights.length; i++)
+			w[weights.offset + i] -= rate * gw[i];
+		for (int i = 0; i < biases.length; i++)
+			b[biases.offset + i] -= rate * gb[i];
+	}
+
+	@Override
+	public void initialize(WeightInitializer initializer, Random random)
+	{
+		initializer.initialize(weights, biases, inputSize, outputSize, random);
+	}
+
+	@Override
+	public Matrix[] getParameters()
+	{
+		return new Matrix[]{weights, biases};
+	}
+
+	@Override
+	public Matrix[] getGradients()
+	{
+		return new Matrix[]{weightGradients, biasGradients};
+	}
+
+	public Matrix getWeights()
+	{
+		return weights;
+	}
+
+	public Matrix getBiases()
+	{
+		return biases;
+	}
+
+	/**
+	 * The fused activation, null for a linear layer
+	 */
+	public ActivationFunction getActivation()
+	{
+		return activation;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		var weights = new Matrix(outputSize, inputSize);
+		var biases = new Matrix(outputSize, 1);
+		weights.copyFrom(this.weights);
+		biases.copyFrom(this.biases);
+		return new DenseLayer(weights, biases, activation);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.DENSE;
+	}
+
+	@Override
+	int getByteCount()
+	{
+		return super.getByteCount() + nameBytes(activation) + weights.BYTES + biases.BYTES;
+	}
+
+	@Override
+	void putBytes(ByteBuffer buffer)
+	{
+		super.putBytes(buffer);
+		putName(buffer, activation);
+		weights.putBytes(buffer);
+		biases.putBytes(buffer);
+	}
+
+	static DenseLayer fromByteBuffer(ByteBuffer buffer, int inputSize, int outputSize)
+	{
+		String name = getName(buffer);
+		ActivationFunction activation = name.isEmpty() ? null : ActivationFunction.forName(name);
+
+		var weights = new Matrix(outputSize, inputSize);
+		var biases = new Matrix(outputSize, 1);
+		weights.readFromByteBuffer(buffer);
+		biases.readFromByteBuffer(buffer);
+		return new DenseLayer(weights, biases, activation);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Dense(" + outputSize + (activation == null ? "" : ", " + activation) + ")";
+	}
+}
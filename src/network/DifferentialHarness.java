@@ -0,0 +1,360 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Randomized differential checks of every optimized matrix & network path against straightforward reference
+ * implementations, and gradient checks of training, over random shapes & the shipped network configurations.
+ * Run it before landing kernel changes, it exits with 1 if anything disagrees:
+ * <pre>java network.DifferentialHarness [seed] [rounds]</pre>
+ */
+public final class DifferentialHarness
+{
+	// relative error of sums computed in a different order
+	private static final double TOLERANCE = 1e-9;
+
+	// relative error of decompositions, which depends on the condition of the random matrices
+	private static final double SOLVE_TOLERANCE = 1e-6;
+
+	// the small & the handwritten digits networks
+	private static final int[][] CONFIGS = {
+		{15, 14, 14, 10},
+		{784, 40, 32, 24, 16, 10}
+	};
+
+	private static final int MAX_SIZE = 40;
+	private static final int MAX_CHECKED_PARAMETERS = 2_000;
+
+	private final Random random;
+
+	// worst error & failure count of every check, in the order they first ran
+	private final Map<String, double[]> results = new LinkedHashMap<>();
+
+	public DifferentialHarness(long seed)
+	{
+		this.random = new Random(seed);
+	}
+
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		var harness = new DifferentialHarness(seed);
+		boolean passed = harness.run(rounds);
+		harness.print();
+
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * @return whether every check passed
+	 */
+	public boolean run(int rounds)
+	{
+		for (int round = 0; round < rounds; round++)
+		{
+			checkMatrixKernels();
+			checkDecompositions();
+			checkNetwork(randomConfig(), "random");
+		}
+
+		for (int[] config : CONFIGS)
+			checkNetwork(config, Arrays.toString(config));
+		checkLayers();
+
+		for (double[] result : results.values())
+			if (result[1] > 0)
+				return false;
+		return true;
+	}
+
+	public void print()
+	{
+		for (Map.Entry<String, double[]> entry : results.entrySet())
+		{
+			double[] result = entry.getValue();
+			System.out.printf("%-4s %-40s max error %.2e%s\n",
+				result[1] == 0 ? "PASS" : "FAIL",
+				entry.getKey(),
+				result[0],
+				result[1] == 0 ? "" : ", failed " + (int) result[1] + " times");
+		}
+	}
+
+	private void checkMatrixKernels()
+	{
+		int m = size(), k = size(), n = size();
+
+		Matrix a = randomMatrix(m, k, 0.3);
+		Matrix b = randomMatrix(k, n, 0.3);
+		Matrix vector = randomMatrix(k, 1, 0.5);
+
+		expect("multiply", a.multiply(b), reference(a, false, b, false), TOLERANCE);
+		expect("multiply vector", a.multiply(vector), reference(a, false, vector, false), TOLERANCE);
+		expect("multiply off-heap", direct(a).multiply(direct(b)), reference(a, false, b, false), TOLERANCE);
+		expect("multiplyInto off-heap result", a.multiplyInto(b, direct(new Matrix(m, n))), reference(a, false, b, false), TOLERANCE);
+
+		Matrix c = randomMatrix(m, n, 0.3);
+		expect("transposeMultiply", a.transposeMultiply(c), reference(a, true, c, false), TOLERANCE);
+		expect("transposeMultiplyInto", a.transposeMultiplyInto(c, new Matrix(k, n)), reference(a, true, c, false), TOLERANCE);
+
+		Matrix d = randomMatrix(m, n, 0.3);
+		Matrix e = randomMatrix(k, n, 0.3);
+		expect("multiplyTransposeInto", d.multiplyTransposeInto(e, new Matrix(m, k)), reference(d, false, e, true), TOLERANCE);
+
+		// sparse inputs, mostly zeros
+		Matrix sparseVector = randomMatrix(k, 1, 0.8);
+		double[] values = sparseVector.asColumn();
+		int[] nonZero = new int[k];
+		int count = 0;
+		for (int i = 0; i < k; i++)
+			if (values[i] != 0)
+				nonZero[count++] = i;
+		expect("multiplySparseColumn", a.multiplySparseColumn(values, nonZero, count), reference(a, false, sparseVector, false), TOLERANCE);
+
+		Matrix sparseColumns = randomMatrix(k, n, 0.8);
+		expect("multiplySparseColumns", a.multiplySparseColumns(sparseColumns), reference(a, false, sparseColumns, false), TOLERANCE);
+
+		Matrix sparseWeights = randomMatrix(m, k, 0.8);
+		expect("SparseMatrix.multiply", SparseMatrix.fromDense(sparseWeights).multiply(b), reference(sparseWeights, false, b, false), TOLERANCE);
+
+		// columns of a jagged batch
+		double[][] arrays = new double[n + 2][];
+		for (int i = 0; i < arrays.length; i++)
+			arrays[i] = randomMatrix(k, 1, 0.3).asColumn();
+		Matrix columns = Matrix.fromColumns(arrays, 1, n);
+		var expected = new Matrix(k, n);
+		for (int i = 0; i < k; i++)
+			for (int j = 0; j < n; j++)
+				expected.set(i, j, arrays[1 + j][i]);
+		expect("fromColumns", columns, expected, 0);
+	}
+
+	private void checkDecompositions()
+	{
+		int n = size();
+
+		// diagonally dominant, so the random matrix is well conditioned
+		Matrix a = randomMatrix(n, n, 0);
+		for (int i = 0; i < n; i++)
+			a.set(i, i, a.get(i, i) + n);
+		Matrix b = randomMatrix(n, size(), 0);
+
+		expect("LU solve", a.multiply(a.lu().solve(b)), b, SOLVE_TOLERANCE);
+		expect("inverse", a.multiply(a.inverse()), Matrix.identity(n), SOLVE_TOLERANCE);
+
+		Matrix inverted = new Matrix(n, n);
+		inverted.copyFrom(a);
+		inverted.invertInPlace();
+		expect("invertInPlace", inverted, a.inverse(), SOLVE_TOLERANCE);
+
+		// A^T * A is symmetric positive definite
+		Matrix spd = a.transposeMultiply(a);
+		expect("Cholesky solve", spd.multiply(spd.cholesky().solve(b)), b, SOLVE_TOLERANCE);
+
+		// least squares of a tall matrix equals the solution of the normal equations
+		int rows = n + size();
+		Matrix tall = randomMatrix(rows, n, 0);
+		for (int i = 0; i < n; i++)
+			tall.set(i, i, tall.get(i, i) + rows);
+		Matrix target = randomMatrix(rows, 1, 0);
+		Matrix normal = tall.transposeMultiply(tall).cholesky().solve(tall.transposeMultiply(target));
+		expect("QR least squares", tall.qr().solve(target), normal, SOLVE_TOLERANCE);
+	}
+
+	private void checkNetwork(int[] config, String name)
+	{
+		int inputSize = config[0];
+		int outputSize = config[config.length - 1];
+		int[] hiddenSizes = Arrays.copyOfRange(config, 1, config.length - 1);
+
+		var network = new DeepNeuralNetwork(inputSize, hiddenSizes, outputSize);
+		network.initialize(WeightInitializer.UNIFORM, random.nextLong());
+
+		double[] dense = randomMatrix(inputSize, 1, 0).asColumn();
+		double[] sparse = randomMatrix(inputSize, 1, 0.8).asColumn();
+		double[] expected = new double[outputSize];
+		expected[random.nextInt(outputSize)] = 1;
+
+		// inference paths
+		for (double[] input : new double[][]{dense, sparse})
+		{
+			double[] reference = GradientChecker.referenceFeed(network, input);
+			expect("feed", network.feed(input), reference, TOLERANCE);
+			expect("feedBatch", network.feedBatch(Matrix.asColumn(input)).asColumn(), reference, TOLERANCE);
+			expect("off-heap feed", network.offHeapCopy().feed(input), reference, TOLERANCE);
+			expect("LayeredNetwork feed", LayeredNetwork.fromNetwork(network).feed(input), reference, TOLERANCE);
+		}
+
+		var batch = new double[3][];
+		batch[0] = dense;
+		batch[1] = sparse;
+		batch[2] = new double[inputSize];
+		Matrix outputs = network.feedBatch(Matrix.fromColumns(batch, 0, batch.length));
+		for (int j = 0; j < batch.length; j++)
+			expect("feedBatch columns", outputs.getColumn(j, new double[outputSize]), GradientChecker.referenceFeed(network, batch[j]), TOLERANCE);
+
+		// incremental updates of a drawing, a few pixels at a time
+		var feeder = new IncrementalFeeder(network);
+		double[] drawing = new double[inputSize];
+		for (int step = 0; step < 20; step++)
+		{
+			for (int i = 0; i < 3; i++)
+				drawing[random.nextInt(inputSize)] = random.nextDouble();
+			expect("IncrementalFeeder", feeder.feed(drawing), GradientChecker.referenceFeed(network, drawing), TOLERANCE);
+		}
+
+		// sparse weights take the SparseMatrix path
+		var pruned = network.copy();
+		double[] parameters = pruned.getParameters();
+		for (int i = 0; i < parameters.length; i++)
+			if (random.nextDouble() < 0.8)
+				parameters[i] = 0;
+		pruned.parametersChanged();
+		expect("sparse weights feed", pruned.feed(dense), GradientChecker.referenceFeed(pruned, dense), TOLERANCE);
+
+		// gradients of both input paths of train
+		var checker = new GradientChecker();
+		checker.setMaxParameters(MAX_CHECKED_PARAMETERS);
+		expectGradients("train gradients " + name, checker.check(network, dense, expected), config);
+		expectGradients("train gradients " + name + " sparse", checker.check(network, sparse, expected), config);
+
+		// the dense network & its layered copy take the same steps
+		var layered = LayeredNetwork.fromNetwork(network);
+		var trained = network.copy();
+		for (int step = 0; step < 5; step++)
+		{
+			double[] input = step % 2 == 0 ? dense : sparse;
+			trained.train(input, expected);
+			layered.train(input, expected);
+		}
+		expect("train vs LayeredNetwork", layered.feed(dense), trained.feed(dense), TOLERANCE);
+	}
+
+	private void checkLayers()
+	{
+		var network = new LayeredNetwork.Builder(2, 9, 8)
+			.seed(random.nextLong())
+			.initializer(WeightInitializer.HE_NORMAL)
+			.convolution(3, 3).activation(ActivationFunction.TANH)
+			.maxPool(2)
+			.dense(6).activation(ActivationFunction.SIGMOID)
+			.dense(4)
+			.softmax()
+			.build();
+
+		double[] input = randomMatrix(network.getInputSize(), 1, 0).asColumn();
+		double[] expected = new double[4];
+		expected[1] = 1;
+		expectGradients("layer gradients", new GradientChecker().check(network, input, expected), null);
+
+		expect("layers feedBatch", network.feedBatch(Matrix.asColumn(input)).asColumn(), network.feed(input), 0);
+	}
+
+	private void expect(String check, Matrix actual, Matrix expected, double tolerance)
+	{
+		if (expected == null)
+			return;
+		if (actual.rows != expected.rows || actual.columns != expected.columns)
+		{
+			record(check, Double.POSITIVE_INFINITY, tolerance);
+			return;
+		}
+
+		double[] a = new double[actual.length], e = new double[expected.length];
+		for (int i = 0; i < a.length; i++)
+		{
+			a[i] = actual.at(i);
+			e[i] = expected.at(i);
+		}
+		expect(check, a, e, tolerance);
+	}
+
+	private void expect(String check, double[] actual, double[] expected, double tolerance)
+	{
+		double error = actual.length == expected.length ? 0 : Double.POSITIVE_INFINITY;
+		for (int i = 0; i < Math.min(actual.length, expected.length); i++)
+		{
+			double difference = Math.abs(actual[i] - expected[i]) / Math.max(1, Math.abs(expected[i]));
+			if (!(difference <= error))
+				error = Double.isNaN(difference) ? Double.POSITIVE_INFINITY : difference;
+		}
+		record(check, error, tolerance);
+	}
+
+	private void expectGradients(String check, GradientChecker.Result result, int[] config)
+	{
+		record(check, result.getMaxRelativeError(), GradientChecker.TOLERANCE);
+		if (!result.passed())
+			System.out.println("FAIL " + check + (config == null ? "" : " " + Arrays.toString(config)) + ": " + result);
+	}
+
+	private void record(String check, double error, double tolerance)
+	{
+		double[] result = results.computeIfAbsent(check, key -> new double[2]);
+		result[0] = Math.max(result[0], error);
+		if (error > tolerance)
+			result[1]++;
+	}
+
+	/**
+	 * Straightforward triple loop over the optionally transposed operands
+	 */
+	private static Matrix reference(Matrix a, boolean transposeA, Matrix b, boolean transposeB)
+	{
+		int rows = transposeA ? a.columns : a.rows;
+		int inner = transposeA ? a.rows : a.columns;
+		int columns = transposeB ? b.rows : b.columns;
+
+		var result = new Matrix(rows, columns);
+		for (int i = 0; i < rows; i++)
+		{
+			for (int j = 0; j < columns; j++)
+			{
+				double sum = 0;
+				for (int k = 0; k < inner; k++)
+					sum += (transposeA ? a.get(k, i) : a.get(i, k)) * (transposeB ? b.get(j, k) : b.get(k, j));
+				result.set(i, j, sum);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Values in [-1, 1], each zero with the given probability
+	 */
+	private Matrix randomMatrix(int rows, int columns, double zeros)
+	{
+		var matrix = new Matrix(rows, columns);
+		for (int i = 0; i < matrix.length; i++)
+			matrix.put(i, random.nextDouble() < zeros ? 0 : 2 * random.nextDouble() - 1);
+		return matrix;
+	}
+
+	private static Matrix direct(Matrix matrix)
+	{
+		var buffer = ByteBuffer.allocateDirect(matrix.length * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		var direct = Matrix.view(buffer, 0, matrix.rows, matrix.columns);
+		direct.copyFrom(matrix);
+		return direct;
+	}
+
+	private int size()
+	{
+		return 1 + random.nextInt(MAX_SIZE);
+	}
+
+	private int[] randomConfig()
+	{
+		int[] config = new int[2 + random.nextInt(3)];
+		for (int i = 0; i < config.length; i++)
+			config[i] = size();
+		return config;
+	}
+}
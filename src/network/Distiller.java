@@ -0,0 +1,218 @@
+package network;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Trains a small student network to reproduce the outputs of a large teacher, which carry more than the labels:
+ * how much a 7 looks like a 1. The teacher's outputs are softened by a temperature, computed in batches the first
+ * time a sample is drawn & cached per sample, and the student learns them through its ordinary train.
+ * <p>
+ * Every output of these networks is its own two class softmax, so softening an output p = f(z) means f(z / T),
+ * with z recovered by inverting the output activation. Only sigmoid & tanh outputs can be softened, dividing relu
+ * or identity outputs by T would just shrink them. Every epoch visits each input once, like
+ * {@link TrainingController}. A distiller serves one thread at a time
+ */
+public final class Distiller
+{
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	// outputs of saturated sigmoid & tanh units are clamped this far from their limits before inverting
+	private static final double SATURATION = 1e-12;
+
+	private final UnaryOperator<Matrix> teacher;
+	private final ActivationFunction activation;
+	private final int inputSize, outputSize;
+
+	private final double[][] inputs;
+	private final int[] labels;
+
+	// soft targets of the inputs, null until their batch was fed to the teacher
+	private final double[][] targets;
+	private int cached;
+
+	private double temperature = 1;
+	private double hardTargetWeight;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private UnaryOperator<double[]> inputTransform = UnaryOperator.identity();
+
+	/**
+	 * @param labels the classes of the inputs, only needed to mix hard targets in
+	 */
+	public Distiller(DeepNeuralNetwork teacher, double[][] inputs, int[] labels)
+	{
+		this(teacher::feedBatch, teacher.getActivationFunction(), teacher.getInputSize(), teacher.getOutputSize(), inputs, labels);
+	}
+
+	/**
+	 * Distills the averaged outputs of the ensemble, whatever it combines its predictions by
+	 */
+	public Distiller(EnsemblePredictor teacher, double[][] inputs, int[] labels)
+	{
+		this(teacher::feedAverage, teacher.getMembers().get(0).getActivationFunction(), teacher.getInputSize(), teacher.getOutputSize(), inputs, labels);
+	}
+
+	private Distiller(UnaryOperator<Matrix> teacher, ActivationFunction activation, int inputSize, int outputSize, double[][] inputs, int[] labels)
+	{
+		if (inputs.length == 0)
+			throw new IllegalArgumentException("No inputs to distill on");
+		if (labels != null && labels.length != inputs.length)
+			throw new IllegalArgumentException("Got " + inputs.length + " inputs but " + labels.length + " labels");
+
+		this.teacher = teacher;
+		this.activation = activation;
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+		this.inputs = inputs;
+		this.labels = labels;
+		this.targets = new double[inputs.length][];
+	}
+
+	/**
+	 * Trains the student on samples drawn from the inputs, each transformed by the input transform & paired with
+	 * the soft target of the untransformed input mixed with its label
+	 */
+	public void train(DeepNeuralNetwork student, int samples, long seed)
+	{
+		if (student.getInputSize() != inputSize || student.getOutputSize() != outputSize)
+			throw new IllegalArgumentException("Student maps " + student.getInputSize() + " -> " + student.getOutputSize()
+				+ ", the teacher " + inputSize + " -> " + outputSize);
+
+		var sampler = labels == null ? new EpochSampler(inputs.length, seed) : new EpochSampler(labels, true, seed);
+		double[] expected = new double[outputSize];
+
+		for (int i = 0; i < samples; i++)
+		{
+			int index = sampler.next();
+
+			if (hardTargetWeight == 0)
+			{
+				student.train(inputTransform.apply(inputs[index]), getTarget(index));
+				continue;
+			}
+
+			// the teacher isn't needed for labels alone
+			if (hardTargetWeight == 1)
+				Arrays.fill(expected, 0);
+			else
+			{
+				double[] target = getTarget(index);
+				for (int j = 0; j < outputSize; j++)
+					expected[j] = (1 - hardTargetWeight) * target[j];
+			}
+			expected[labels[index]] += hardTargetWeight;
+
+			student.train(inputTransform.apply(inputs[index]), expected);
+		}
+	}
+
+	/**
+	 * The softened teacher output of an input, fed to the teacher together with the rest of its batch if it isn't
+	 * cached yet
+	 */
+	public double[] getTarget(int index)
+	{
+		if (targets[index] == null)
+		{
+			int offset = index - index % batchSize;
+			int count = Math.min(batchSize, inputs.length - offset);
+			Matrix outputs = teacher.apply(Matrix.fromColumns(inputs, offset, count));
+
+			for (int j = 0; j < count; j++)
+			{
+				if (targets[offset + j] != null)
+					continue;
+
+				double[] target = outputs.getColumn(j, new double[outputSize]);
+				if (temperature != 1)
+					for (int k = 0; k < target.length; k++)
+						target[k] = soften(target[k]);
+
+				targets[offset + j] = target;
+				cached++;
+			}
+		}
+
+		return targets[index];
+	}
+
+	private double soften(double output)
+	{
+		double sum;
+		if (activation == ActivationFunction.SIGMOID)
+		{
+			double p = Math.min(Math.max(output, SATURATION), 1 - SATURATION);
+			sum = Math.log(p / (1 - p));
+		} else
+		{
+			double p = Math.min(Math.max(output, SATURATION - 1), 1 - SATURATION);
+			sum = 0.5 * Math.log((1 + p) / (1 - p));
+		}
+
+		return activation.getFunction().apply(sum / temperature);
+	}
+
+	/**
+	 * The amount of inputs whose soft targets are cached
+	 */
+	public int getCachedCount()
+	{
+		return cached;
+	}
+
+	public double getTemperature()
+	{
+		return temperature;
+	}
+
+	/**
+	 * Above 1 the soft targets move towards the activation's middle, exposing more of the teacher's doubts. Only
+	 * sigmoid & tanh teachers take temperatures other than 1. Clears the cache
+	 */
+	public void setTemperature(double temperature)
+	{
+		if (!(temperature > 0))
+			throw new IllegalArgumentException("Invalid temperature " + temperature);
+		if (temperature != 1 && activation != ActivationFunction.SIGMOID && activation != ActivationFunction.TANH)
+			throw new IllegalArgumentException("Can't soften the outputs of " + activation + ", only sigmoid & tanh");
+
+		this.temperature = temperature;
+		Arrays.fill(targets, null);
+		cached = 0;
+	}
+
+	public double getHardTargetWeight()
+	{
+		return hardTargetWeight;
+	}
+
+	/**
+	 * The share of the one-hot label in every target, the rest is the soft target
+	 */
+	public void setHardTargetWeight(double hardTargetWeight)
+	{
+		if (!(hardTargetWeight >= 0 && hardTargetWeight <= 1))
+			throw new IllegalArgumentException("Invalid hard target weight " + hardTargetWeight);
+		if (hardTargetWeight > 0 && labels == null)
+			throw new IllegalStateException("Hard targets need labels");
+		this.hardTargetWeight = hardTargetWeight;
+	}
+
+	/**
+	 * The amount of inputs fed to the teacher at once
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Applied to every input the student trains on, e.g. to malform it. The teacher always sees the original
+	 */
+	public void setInputTransform(UnaryOperator<double[]> inputTransform)
+	{
+		this.inputTransform = inputTransform;
+	}
+}
@@ -0,0 +1,104 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Zeroes a random fraction of the values while training & scales the rest up to keep the expected sum, so
+ * inference passes the values through unchanged
+ */
+public final class DropoutLayer extends Layer
+{
+	private final double rate;
+	private final long seed;
+	private final Random random;
+
+	// whether the last forward pass dropped values, only then backward has to apply the mask
+	private boolean masked;
+	private final double[] mask, output, inputError;
+
+	/**
+	 * @param rate fraction of the values dropped, in [0, 1)
+	 */
+	public DropoutLayer(int size, double rate, long seed)
+	{
+		super(size, size);
+
+		if (!(rate >= 0 && rate < 1))
+			throw new IllegalArgumentException("Dropout rate must be in [0, 1), got " + rate);
+
+		this.rate = rate;
+		this.seed = seed;
+		this.random = new Random(seed);
+
+		mask = new double[size];
+		output = new double[size];
+		inputError = new double[size];
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		masked = training && rate > 0;
+		if (!masked)
+			return input;
+
+		double scale = 1 / (1 - rate);
+		for (int i = 0; i < outputSize; i++)
+		{
+			mask[i] = random.nextDouble() < rate ? 0 : scale;
+			output[i] = input[i] * mask[i];
+		}
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		if (!propagate)
+			return null;
+		if (!masked)
+			return outputError;
+
+		for (int i = 0; i < inputSize; i++)
+			inputError[i] = outputError[i] * mask[i];
+		return inputError;
+	}
+
+	public double getRate()
+	{
+		return rate;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		return new DropoutLayer(inputSize, rate, seed);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.DROPOUT;
+	}
+
+	@Override
+	int getByteCount()
+	{
+		return super.getByteCount() + Double.BYTES + Long.BYTES;
+	}
+
+	@Override
+	void putBytes(ByteBuffer buffer)
+	{
+		super.putBytes(buffer);
+		buffer.putDouble(rate);
+		buffer.putLong(seed);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Dropout(" + rate + ")";
+	}
+}
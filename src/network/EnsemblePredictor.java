@@ -0,0 +1,193 @@
+package network;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Combines the outputs of several networks trained for the same task. Every batch is fed to all members at once,
+ * each on its own thread & all reading the same input matrix, so a prediction takes as long as the slowest member
+ * rather than all of them together
+ */
+public final class EnsemblePredictor
+{
+	public enum Combination
+	{
+		/**
+		 * The mean of the members' outputs
+		 */
+		AVERAGE,
+
+		/**
+		 * The fraction of members predicting each class
+		 */
+		VOTE
+	}
+
+	private final DeepNeuralNetwork[] members;
+	private final ForkJoinPool pool;
+
+	private Combination combination = Combination.AVERAGE;
+
+	public EnsemblePredictor(DeepNeuralNetwork... members)
+	{
+		this(Arrays.asList(members), ForkJoinPool.commonPool());
+	}
+
+	public EnsemblePredictor(List<DeepNeuralNetwork> members, ForkJoinPool pool)
+	{
+		if (members.isEmpty())
+			throw new IllegalArgumentException("An ensemble needs at least one member");
+
+		DeepNeuralNetwork first = members.get(0);
+		for (DeepNeuralNetwork member : members)
+			if (member.getInputSize() != first.getInputSize() || member.getOutputSize() != first.getOutputSize())
+				throw new IllegalArgumentException("Members map " + member.getInputSize() + " -> " + member.getOutputSize()
+					+ " and " + first.getInputSize() + " -> " + first.getOutputSize());
+
+		this.members = members.toArray(new DeepNeuralNetwork[0]);
+		this.pool = pool;
+	}
+
+	/**
+	 * Loads every member from its file
+	 */
+	public static EnsemblePredictor readFromFiles(List<Path> paths) throws IOException
+	{
+		var members = new ArrayList<DeepNeuralNetwork>();
+		for (Path path : paths)
+			members.add(DeepNeuralNetwork.readFromFile(path));
+		return new EnsemblePredictor(members, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Loads the .dat files of the directory matching the glob, for example "complex_digits*.dat"
+	 */
+	public static EnsemblePredictor readFromDirectory(Path directory, String glob) throws IOException
+	{
+		var paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob))
+		{
+			for (Path path : stream)
+				paths.add(path);
+		}
+
+		// the order of a directory listing isn't defined, the order of the members shouldn't change between runs
+		paths.sort(null);
+		return readFromFiles(paths);
+	}
+
+	public double[] feed(double... input)
+	{
+		return feedBatch(Matrix.asColumn(input)).asColumn();
+	}
+
+	/**
+	 * The combined outputs of a batch of input columns, safe to call from several threads
+	 */
+	public Matrix feedBatch(Matrix inputs)
+	{
+		return combine(feedMembers(inputs), combination);
+	}
+
+	/**
+	 * The averaged outputs of a batch of input columns, whatever the combination
+	 */
+	Matrix feedAverage(Matrix inputs)
+	{
+		return combine(feedMembers(inputs), Combination.AVERAGE);
+	}
+
+	/**
+	 * The member outputs of a batch of input columns, in the order of the members
+	 */
+	public Matrix[] feedMembers(Matrix inputs)
+	{
+		Matrix[] outputs = new Matrix[members.length];
+		pool.submit(() -> IntStream.range(0, members.length).parallel().forEach(m ->
+			outputs[m] = members[m].feedBatch(inputs)
+		)).join();
+		return outputs;
+	}
+
+	private static Matrix combine(Matrix[] outputs, Combination combination)
+	{
+		var combined = new Matrix(outputs[0].rows, outputs[0].columns);
+
+		if (combination == Combination.AVERAGE)
+		{
+			for (Matrix output : outputs)
+				for (int i = 0; i < combined.length; i++)
+					combined.put(i, combined.at(i) + output.at(i));
+			for (int i = 0; i < combined.length; i++)
+				combined.put(i, combined.at(i) / outputs.length);
+		} else
+		{
+			double[] column = new double[combined.rows];
+			double vote = 1.0 / outputs.length;
+			for (Matrix output : outputs)
+			{
+				for (int j = 0; j < combined.columns; j++)
+				{
+					int predicted = DeepNeuralNetwork.largestIndex(output.getColumn(j, column));
+					combined.set(predicted, j, combined.get(predicted, j) + vote);
+				}
+			}
+		}
+
+		return combined;
+	}
+
+	/**
+	 * Trains the student, usually a network much smaller than the members, to reproduce the averaged outputs of the
+	 * ensemble so it can be served at the cost of a single network. See {@link Distiller} for temperatures & hard
+	 * targets
+	 *
+	 * @param samples   training samples drawn from the inputs
+	 * @param transform applied to every drawn input before the student trains on it, for example to augment it
+	 */
+	public void distill(DeepNeuralNetwork student, double[][] inputs, int samples, long seed, UnaryOperator<double[]> transform)
+	{
+		var distiller = new Distiller(this, inputs, null);
+		distiller.setInputTransform(transform);
+		distiller.train(student, samples, seed);
+	}
+
+	public List<DeepNeuralNetwork> getMembers()
+	{
+		return List.of(members);
+	}
+
+	public int getInputSize()
+	{
+		return members[0].getInputSize();
+	}
+
+	public int getOutputSize()
+	{
+		return members[0].getOutputSize();
+	}
+
+	public Combination getCombination()
+	{
+		return combination;
+	}
+
+	public void setCombination(Combination combination)
+	{
+		this.combination = combination;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "EnsemblePredictor{" + members.length + " members, " + combination + "}";
+	}
+}
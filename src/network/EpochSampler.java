@@ -0,0 +1,227 @@
+package network;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Visits every training sample exactly once per epoch, in a freshly shuffled order
+ */
+public class EpochSampler
+{
+	private final int[] indices;
+	private final int[][] classBuckets;
+	private final int[] classTaken;
+	private final Random random;
+
+	private int cursor;
+	private int epoch;
+	private long samples;
+
+	// running metrics for the current epoch
+	private double epochError;
+	private int epochSamples;
+
+	// metrics of the last completed epoch
+	private double lastEpochError = Double.NaN;
+
+	/**
+	 * Creates a sampler over the indices [0, size)
+	 */
+	public EpochSampler(int size, long seed)
+	{
+		if (size < 1)
+			throw new IllegalArgumentException("Cannot sample from an empty set");
+
+		this.indices = new int[size];
+		this.classBuckets = null;
+		this.classTaken = null;
+		this.random = new Random(seed);
+
+		for (int i = 0; i < size; i++)
+			indices[i] = i;
+
+		shuffle();
+	}
+
+	/**
+	 * Creates a sampler over samples with the given labels, if stratified each epoch is ordered so that
+	 * any contiguous slice holds roughly the same class distribution as the whole set
+	 */
+	public EpochSampler(int[] labels, boolean stratified, long seed)
+	{
+		if (labels.length < 1)
+			throw new IllegalArgumentException("Cannot sample from an empty set");
+
+		this.indices = new int[labels.length];
+		this.random = new Random(seed);
+
+		if (stratified)
+		{
+			int classes = 0;
+			for (int label : labels)
+			{
+				if (label < 0)
+					throw new IllegalArgumentException("Invalid label " + label);
+				classes = Math.max(classes, label + 1);
+			}
+
+			int[] counts = new int[classes];
+			for (int label : labels)
+				counts[label]++;
+
+			classBuckets = new int[classes][];
+			for (int c = 0; c < classes; c++)
+				classBuckets[c] = new int[counts[c]];
+
+			classTaken = new int[classes];
+			for (int i = 0; i < labels.length; i++)
+				classBuckets[labels[i]][classTaken[labels[i]]++] = i;
+		} else
+		{
+			classBuckets = null;
+			classTaken = null;
+			for (int i = 0; i < indices.length; i++)
+				indices[i] = i;
+		}
+
+		shuffle();
+	}
+
+	/**
+	 * Returns the index of the next sample, starting a new epoch if the current one is exhausted
+	 */
+	public int next()
+	{
+		if (cursor == indices.length)
+			nextEpoch();
+
+		samples++;
+		return indices[cursor++];
+	}
+
+	/**
+	 * Fills the given array with the next mini-batch of indices, a batch never spans two epochs
+	 *
+	 * @return the amount of indices written, smaller than batch.length only at the end of an epoch
+	 */
+	public int nextBatch(int[] batch)
+	{
+		if (cursor == indices.length)
+			nextEpoch();
+
+		int count = Math.min(batch.length, indices.length - cursor);
+		System.arraycopy(indices, cursor, batch, 0, count);
+		cursor += count;
+		samples += count;
+
+		return count;
+	}
+
+	/**
+	 * Records the error of a trained sample into the current epoch's metrics
+	 */
+	public void record(double error)
+	{
+		epochError += error;
+		epochSamples++;
+	}
+
+	private void nextEpoch()
+	{
+		lastEpochError = epochSamples == 0 ? Double.NaN : epochError / epochSamples;
+
+		epochError = 0;
+		epochSamples = 0;
+
+		epoch++;
+		shuffle();
+	}
+
+	private void shuffle()
+	{
+		cursor = 0;
+
+		if (classBuckets == null)
+		{
+			fisherYates(indices, indices.length);
+			return;
+		}
+
+		for (int[] bucket : classBuckets)
+			fisherYates(bucket, bucket.length);
+
+		// merge the shuffled buckets, always taking from the class furthest behind its share of the epoch
+		Arrays.fill(classTaken, 0);
+		for (int i = 0; i < indices.length; i++)
+		{
+			int best = -1;
+			double bestProgress = Double.MAX_VALUE;
+
+			for (int c = 0; c < classBuckets.length; c++)
+			{
+				int size = classBuckets[c].length;
+				if (classTaken[c] == size)
+					continue;
+
+				double progress = (classTaken[c] + 0.5) / size;
+				if (progress < bestProgress)
+				{
+					bestProgress = progress;
+					best = c;
+				}
+			}
+
+			indices[i] = classBuckets[best][classTaken[best]++];
+		}
+	}
+
+	private void fisherYates(int[] array, int length)
+	{
+		for (int i = length - 1; i > 0; i--)
+		{
+			int j = random.nextInt(i + 1);
+			int tmp = array[i];
+			array[i] = array[j];
+			array[j] = tmp;
+		}
+	}
+
+	public int size()
+	{
+		return indices.length;
+	}
+
+	/**
+	 * Zero based index of the epoch currently being sampled
+	 */
+	public int getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * Position inside the current epoch
+	 */
+	public int getPosition()
+	{
+		return cursor;
+	}
+
+	/**
+	 * Total amount of indices handed out over all epochs
+	 */
+	public long getSamples()
+	{
+		return samples;
+	}
+
+	public double getLastEpochError()
+	{
+		return lastEpochError;
+	}
+
+	public double getEpochError()
+	{
+		return epochSamples == 0 ? Double.NaN : epochError / epochSamples;
+	}
+}
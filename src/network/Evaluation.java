@@ -0,0 +1,145 @@
+package network;
+
+import java.io.PrintStream;
+
+/**
+ * Result of evaluating a network against a labelled data set
+ */
+public final class Evaluation
+{
+	// confusion[expected][predicted]
+	private final int[][] confusion;
+	private final double[] loss;
+	private final int total;
+
+	Evaluation(int[][] confusion, double[] loss)
+	{
+		this.confusion = confusion;
+		this.loss = loss;
+
+		int total = 0;
+		for (int[] row : confusion)
+			for (int count : row)
+				total += count;
+		this.total = total;
+	}
+
+	public int getClassCount()
+	{
+		return confusion.length;
+	}
+
+	public int getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * Amount of samples labelled with the given class
+	 */
+	public int getCount(int expected)
+	{
+		int count = 0;
+		for (int value : confusion[expected])
+			count += value;
+		return count;
+	}
+
+	/**
+	 * Amount of samples predicted as the given class
+	 */
+	public int getPredictedCount(int predicted)
+	{
+		int count = 0;
+		for (int[] row : confusion)
+			count += row[predicted];
+		return count;
+	}
+
+	public int getCorrect(int expected)
+	{
+		return confusion[expected][expected];
+	}
+
+	public int getCorrect()
+	{
+		int correct = 0;
+		for (int i = 0; i < confusion.length; i++)
+			correct += confusion[i][i];
+		return correct;
+	}
+
+	public double getAccuracy()
+	{
+		return total == 0 ? Double.NaN : getCorrect() / (double) total;
+	}
+
+	public double getPrecision(int c)
+	{
+		int predicted = getPredictedCount(c);
+		return predicted == 0 ? Double.NaN : confusion[c][c] / (double) predicted;
+	}
+
+	public double getRecall(int c)
+	{
+		int count = getCount(c);
+		return count == 0 ? Double.NaN : confusion[c][c] / (double) count;
+	}
+
+	/**
+	 * Mean squared error summed over the outputs, averaged over all samples
+	 */
+	public double getMeanLoss()
+	{
+		double sum = 0;
+		for (double value : loss)
+			sum += value;
+		return total == 0 ? Double.NaN : sum / total;
+	}
+
+	/**
+	 * Mean loss of the samples labelled with the given class
+	 */
+	public double getMeanLoss(int expected)
+	{
+		int count = getCount(expected);
+		return count == 0 ? Double.NaN : loss[expected] / count;
+	}
+
+	/**
+	 * Copy of the confusion matrix, indexed [expected][predicted]
+	 */
+	public int[][] getConfusionMatrix()
+	{
+		var copy = new int[confusion.length][];
+		for (int i = 0; i < confusion.length; i++)
+			copy[i] = confusion[i].clone();
+		return copy;
+	}
+
+	public void print(PrintStream out)
+	{
+		for (int i = 0; i < confusion.length; i++)
+		{
+			out.printf("Accuracy for %d: %d%% (%d/%d)  Precision: %d%%  Error: %d%%%n",
+				i,
+				(int) (100 * getRecall(i)),
+				getCorrect(i),
+				getCount(i),
+				(int) (100 * getPrecision(i)),
+				(int) (100 * getMeanLoss(i)));
+		}
+
+		out.println("Confusion matrix (rows expected, columns predicted):");
+		for (int[] row : confusion)
+		{
+			var line = new StringBuilder();
+			for (int count : row)
+				line.append(String.format("%6d", count));
+			out.println(line);
+		}
+
+		out.println("Total accuracy: " + (int) (100 * getAccuracy()) + "% (" + getCorrect() + "/" + total + ")");
+		out.println("Average error: " + (int) (100 * getMeanLoss()) + "%");
+	}
+}
@@ -0,0 +1,110 @@
+package network;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates a network against a labelled data set with batched forward passes spread across all cores
+ */
+public class Evaluator
+{
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private final int batchSize;
+	private final ForkJoinPool pool;
+
+	public Evaluator()
+	{
+		this(DEFAULT_BATCH_SIZE, ForkJoinPool.commonPool());
+	}
+
+	public Evaluator(int batchSize, ForkJoinPool pool)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size " + batchSize);
+
+		this.batchSize = batchSize;
+		this.pool = pool;
+	}
+
+	/**
+	 * Evaluates the network, the expected output of inputs[i] is the one-hot vector of labels[i]
+	 */
+	public Evaluation evaluate(DeepNeuralNetwork network, double[][] inputs, int[] labels)
+	{
+		return evaluate(network::feedBatch, network.getOutputSize(), inputs, labels);
+	}
+
+	public Evaluation evaluate(LayeredNetwork network, double[][] inputs, int[] labels)
+	{
+		return evaluate(network::feedBatch, network.getOutputSize(), inputs, labels);
+	}
+
+	public Evaluation evaluate(EnsemblePredictor ensemble, double[][] inputs, int[] labels)
+	{
+		return evaluate(ensemble::feedBatch, ensemble.getOutputSize(), inputs, labels);
+	}
+
+	/**
+	 * @param feedBatch maps a batch of input columns to their output columns, called from several threads
+	 */
+	private Evaluation evaluate(UnaryOperator<Matrix> feedBatch, int classes, double[][] inputs, int[] labels)
+	{
+		if (inputs.length != labels.length)
+			throw new IllegalArgumentException("Got " + inputs.length + " inputs but " + labels.length + " labels");
+
+		int batches = (inputs.length + batchSize - 1) / batchSize;
+
+		int[][][] confusions = new int[batches][classes][classes];
+		double[][] losses = new double[batches][classes];
+
+		pool.submit(() -> IntStream.range(0, batches).parallel().forEach(b ->
+		{
+			int offset = b * batchSize;
+			int count = Math.min(batchSize, inputs.length - offset);
+
+			Matrix outputs = feedBatch.apply(Matrix.fromColumns(inputs, offset, count));
+			evaluateBatch(outputs, labels, offset, confusions[b], losses[b]);
+		})).join();
+
+		// reduce the per batch results
+		int[][] confusion = new int[classes][classes];
+		double[] loss = new double[classes];
+
+		for (int b = 0; b < batches; b++)
+		{
+			for (int i = 0; i < classes; i++)
+			{
+				loss[i] += losses[b][i];
+				for (int j = 0; j < classes; j++)
+					confusion[i][j] += confusions[b][i][j];
+			}
+		}
+
+		return new Evaluation(confusion, loss);
+	}
+
+	private static void evaluateBatch(Matrix outputs, int[] labels, int offset, int[][] confusion, double[] loss)
+	{
+		double[] output = new double[outputs.rows];
+
+		for (int j = 0; j < outputs.columns; j++)
+		{
+			outputs.getColumn(j, output);
+
+			int expected = labels[offset + j];
+			int predicted = DeepNeuralNetwork.largestIndex(output);
+
+			confusion[expected][predicted]++;
+
+			double error = 0;
+			for (int i = 0; i < output.length; i++)
+			{
+				double diff = output[i] - (i == expected ? 1 : 0);
+				error += diff * diff;
+			}
+			loss[expected] += error;
+		}
+	}
+}
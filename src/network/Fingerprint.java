@@ -0,0 +1,143 @@
+package network;
+
+/**
+ * Streaming 64 bit xxHash (XXH64) over 64 bit words, the value of a sequence of doubles equals XXH64 of their
+ * little endian bytes. Nothing is allocated or copied, so fingerprinting a whole network costs one pass over its
+ * parameters
+ */
+public final class Fingerprint
+{
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private final long seed;
+	private long v1, v2, v3, v4;
+
+	// words of the current 32 byte stripe that aren't consumed yet
+	private final long[] pending = new long[4];
+	private int pendingCount;
+	private long words;
+
+	public Fingerprint()
+	{
+		this(0);
+	}
+
+	public Fingerprint(long seed)
+	{
+		this.seed = seed;
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+	}
+
+	public Fingerprint update(long word)
+	{
+		pending[pendingCount++] = word;
+		words++;
+
+		if (pendingCount == 4)
+		{
+			v1 = round(v1, pending[0]);
+			v2 = round(v2, pending[1]);
+			v3 = round(v3, pending[2]);
+			v4 = round(v4, pending[3]);
+			pendingCount = 0;
+		}
+		return this;
+	}
+
+	public Fingerprint update(double value)
+	{
+		return update(Double.doubleToRawLongBits(value));
+	}
+
+	public Fingerprint update(double[] values, int from, int to)
+	{
+		int i = from;
+
+		// finish a started stripe, then whole stripes straight from the array
+		while (pendingCount != 0 && i < to)
+			update(values[i++]);
+
+		for (; i + 4 <= to; i += 4)
+		{
+			v1 = round(v1, Double.doubleToRawLongBits(values[i]));
+			v2 = round(v2, Double.doubleToRawLongBits(values[i + 1]));
+			v3 = round(v3, Double.doubleToRawLongBits(values[i + 2]));
+			v4 = round(v4, Double.doubleToRawLongBits(values[i + 3]));
+			words += 4;
+		}
+
+		while (i < to)
+			update(values[i++]);
+
+		return this;
+	}
+
+	/**
+	 * The shape & every value of the matrix, wherever it is stored
+	 */
+	public Fingerprint update(Matrix matrix)
+	{
+		update(((long) matrix.rows << 32) | matrix.columns);
+
+		if (matrix.buffer != null)
+			return update(matrix.buffer, matrix.offset, matrix.offset + matrix.length);
+
+		for (int i = 0; i < matrix.length; i++)
+			update(matrix.at(i));
+		return this;
+	}
+
+	/**
+	 * The fingerprint of everything so far, more words can still be added afterwards
+	 */
+	public long getValue()
+	{
+		long hash;
+		if (words >= 4)
+		{
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		} else
+		{
+			hash = seed + PRIME5;
+		}
+
+		hash += words * 8;
+
+		for (int i = 0; i < pendingCount; i++)
+		{
+			hash ^= round(0, pending[i]);
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private static long round(long accumulator, long input)
+	{
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long merge(long hash, long value)
+	{
+		hash ^= round(0, value);
+		return hash * PRIME1 + PRIME4;
+	}
+}
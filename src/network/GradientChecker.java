@@ -0,0 +1,218 @@
+package network;
+
+/**
+ * Compares the gradients backpropagation computes with central finite differences of the squared error train
+ * minimizes. Checks run on copies, the checked networks are left untouched. The costs of a DeepNeuralNetwork are
+ * computed with a plain forward pass of its own, so neither the sparse nor the cached inference paths are trusted
+ */
+public final class GradientChecker
+{
+	public static final double DEFAULT_EPSILON = 1e-5;
+
+	/**
+	 * Largest relative error correct gradients show with central differences in double precision
+	 */
+	public static final double TOLERANCE = 1e-5;
+
+	// relative rounding error of a forward pass, differences of costs below it are noise
+	private static final double ROUNDING = 1e-14;
+
+	private double epsilon = DEFAULT_EPSILON;
+	private int maxParameters = Integer.MAX_VALUE;
+
+	public void setEpsilon(double epsilon)
+	{
+		if (!(epsilon > 0))
+			throw new IllegalArgumentException("Invalid epsilon " + epsilon);
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Checks at most this many parameters per network, spread evenly over all of them
+	 */
+	public void setMaxParameters(int maxParameters)
+	{
+		if (maxParameters < 1)
+			throw new IllegalArgumentException("Invalid parameter count " + maxParameters);
+		this.maxParameters = maxParameters;
+	}
+
+	public Result check(DeepNeuralNetwork network, double[] input, double[] expected)
+	{
+		var copy = network.copy();
+		copy.setLearningRate(0);
+		copy.train(input, expected);
+
+		double[] parameters = copy.getParameters();
+		double[] gradients = copy.getGradients();
+
+		var result = new Result(noise(referenceCost(copy, input, expected)));
+		int stride = Math.max(1, parameters.length / maxParameters);
+		for (int k = 0; k < parameters.length; k += stride)
+		{
+			double value = parameters[k];
+			parameters[k] = value + epsilon;
+			double up = referenceCost(copy, input, expected);
+			parameters[k] = value - epsilon;
+			double down = referenceCost(copy, input, expected);
+			parameters[k] = value;
+
+			result.add(k, gradients[k], (up - down) / (2 * epsilon));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Dropout has to be disabled, the masks of train & the numerical costs would differ
+	 */
+	public Result check(LayeredNetwork network, double[] input, double[] expected)
+	{
+		var copy = network.copy();
+		for (Layer layer : copy.getLayers())
+			if (layer instanceof DropoutLayer && ((DropoutLayer) layer).getRate() > 0)
+				throw new IllegalArgumentException("Can't check gradients through " + layer);
+
+		copy.setLearningRate(0);
+		copy.train(input, expected);
+
+		var result = new Result(noise(cost(copy.feed(input), expected)));
+		int index = 0;
+		int stride = Math.max(1, copy.getParameterCount() / maxParameters);
+
+		for (Layer layer : copy.getLayers())
+		{
+			Matrix[] parameters = layer.getParameters();
+			Matrix[] gradients = layer.getGradients();
+
+			for (int m = 0; m < parameters.length; m++)
+			{
+				// the gradient buffers are overwritten by nothing but train, copy them anyway to be safe
+				double[] gradient = new double[gradients[m].length];
+				for (int i = 0; i < gradient.length; i++)
+					gradient[i] = gradients[m].at(i);
+
+				for (int i = 0; i < parameters[m].length; i++, index++)
+				{
+					if (index % stride != 0)
+						continue;
+
+					double value = parameters[m].at(i);
+					parameters[m].put(i, value + epsilon);
+					double up = cost(copy.feed(input), expected);
+					parameters[m].put(i, value - epsilon);
+					double down = cost(copy.feed(input), expected);
+					parameters[m].put(i, value);
+
+					result.add(index, gradient[i], (up - down) / (2 * epsilon));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Straightforward forward pass over the weights & biases, without any of the optimized paths
+	 */
+	static double[] referenceFeed(DeepNeuralNetwork network, double[] input)
+	{
+		var function = network.getActivationFunction().getFunction();
+
+		double[] activation = input;
+		for (int l = 0; l < network.getLayerCount(); l++)
+		{
+			Matrix weights = network.getWeights(l);
+			Matrix biases = network.getBiases(l);
+
+			double[] next = new double[weights.rows];
+			for (int r = 0; r < weights.rows; r++)
+			{
+				double sum = biases.at(r);
+				for (int c = 0; c < weights.columns; c++)
+					sum += weights.at(r * weights.columns + c) * activation[c];
+				next[r] = function.apply(sum);
+			}
+			activation = next;
+		}
+
+		return activation;
+	}
+
+	/**
+	 * Error of a numeric gradient caused by rounding the costs, gradients differing by less are equal
+	 */
+	private double noise(double cost)
+	{
+		return ROUNDING * Math.max(1, cost) / epsilon;
+	}
+
+	private static double referenceCost(DeepNeuralNetwork network, double[] input, double[] expected)
+	{
+		return cost(referenceFeed(network, input), expected);
+	}
+
+	private static double cost(double[] output, double[] expected)
+	{
+		double cost = 0;
+		for (int i = 0; i < output.length; i++)
+		{
+			double difference = output[i] - expected[i];
+			cost += difference * difference;
+		}
+		return cost;
+	}
+
+	/**
+	 * The worst parameter of a check
+	 */
+	public static final class Result
+	{
+		private final double noise;
+
+		private int checked;
+		private int worstIndex = -1;
+		private double worstError, worstAnalytic, worstNumeric;
+
+		private Result(double noise)
+		{
+			this.noise = noise;
+		}
+
+		private void add(int index, double analytic, double numeric)
+		{
+			checked++;
+
+			double error = Math.abs(analytic - numeric) / Math.max(noise / TOLERANCE, Math.abs(analytic) + Math.abs(numeric));
+			if (error > worstError || worstIndex < 0)
+			{
+				worstError = error;
+				worstIndex = index;
+				worstAnalytic = analytic;
+				worstNumeric = numeric;
+			}
+		}
+
+		public double getMaxRelativeError()
+		{
+			return worstError;
+		}
+
+		public boolean passed()
+		{
+			return worstError <= TOLERANCE;
+		}
+
+		public int getChecked()
+		{
+			return checked;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d parameters, max relative error %.2e at parameter %d (backprop %.6e, numeric %.6e)",
+				checked, worstError, worstIndex, worstAnalytic, worstNumeric);
+		}
+	}
+}
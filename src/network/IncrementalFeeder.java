@@ -0,0 +1,79 @@
+package network;
+
+import java.util.function.Function;
+
+/**
+ * Feeds a network input after input where only a few values change between calls, like a drawing. The first
+ * layer's weighted sum is cached & only updated by delta * weight column for every changed input
+ */
+public final class IncrementalFeeder
+{
+	/**
+	 * Incremental updates between full recomputations, bounds the rounding error that the updates accumulate
+	 */
+	public static final int REFRESH_INTERVAL = 1024;
+
+	private final DeepNeuralNetwork network;
+
+	private final double[] input;
+	private final double[] firstSum;
+
+	private long version = -1;
+	private int updates;
+
+	public IncrementalFeeder(DeepNeuralNetwork network)
+	{
+		this.network = network;
+		this.input = new double[network.getInputSize()];
+		this.firstSum = new double[network.getWeights(0).rows];
+	}
+
+	public double[] feed(double... inputRaw)
+	{
+		if (inputRaw.length != input.length)
+			throw new IllegalArgumentException("Expected " + input.length + " inputs, got " + inputRaw.length);
+
+		Matrix weights = network.getWeights(0);
+
+		int changed = 0;
+		for (int k = 0; k < input.length; k++)
+			if (inputRaw[k] != input[k])
+				changed++;
+
+		// a full multiply is cheaper once most inputs changed
+		if (version != network.getParameterVersion() || updates >= REFRESH_INTERVAL || 2 * changed > input.length)
+		{
+			System.arraycopy(inputRaw, 0, input, 0, input.length);
+			weights.multiply(Matrix.asColumn(input)).getColumn(0, firstSum);
+
+			version = network.getParameterVersion();
+			updates = 0;
+		} else if (changed > 0)
+		{
+			for (int k = 0; k < input.length; k++)
+			{
+				double delta = inputRaw[k] - input[k];
+				if (delta == 0)
+					continue;
+
+				for (int r = 0; r < firstSum.length; r++)
+					firstSum[r] += delta * weights.at(r * weights.columns + k);
+
+				input[k] = inputRaw[k];
+			}
+			updates++;
+		}
+
+		Function<Double, Double> function = network.getActivationFunction().getFunction();
+		Matrix biases = network.getBiases(0);
+
+		Matrix activation = new Matrix(firstSum.length, 1);
+		for (int r = 0; r < firstSum.length; r++)
+			activation.set(r, 0, function.apply(firstSum[r] + biases.get(r, 0)));
+
+		for (int i = 1; i < network.getLayerCount(); i++)
+			activation = network.getWeights(i).multiply(activation).add(network.getBiases(i)).map(function);
+
+		return activation.getColumn(0, new double[activation.rows]);
+	}
+}
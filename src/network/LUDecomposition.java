@@ -0,0 +1,170 @@
+package network;
+
+/**
+ * LU decomposition with partial pivoting, PA = LU. The factors live in one row major array that is reused when
+ * another matrix of the same size is decomposed, & every solve reuses the factors
+ */
+public final class LUDecomposition
+{
+	private final int n;
+
+	// L strictly below the diagonal with implicit ones on it, U on & above it
+	private final double[] lu;
+	private final int[] pivot;
+	private int pivotSign;
+	private boolean singular;
+
+	public LUDecomposition(Matrix matrix)
+	{
+		if (matrix.rows != matrix.columns)
+			throw new UnsupportedOperationException("Invalid operation on " + matrix.rows + "x" + matrix.columns + " matrix");
+
+		n = matrix.rows;
+		lu = new double[n * n];
+		pivot = new int[n];
+		decompose(matrix);
+	}
+
+	/**
+	 * Decomposes another matrix of the same size into this object's storage
+	 */
+	public void decompose(Matrix matrix)
+	{
+		if (matrix.rows != n || matrix.columns != n)
+			throw new UnsupportedOperationException("Invalid network.Matrix Size, Expected " + n + "x" + n + ", got " + matrix.rows + "x" + matrix.columns);
+
+		for (int i = 0; i < lu.length; i++)
+			lu[i] = matrix.at(i);
+		for (int i = 0; i < n; i++)
+			pivot[i] = i;
+		pivotSign = 1;
+		singular = false;
+
+		for (int k = 0; k < n; k++)
+		{
+			// largest magnitude in column k at or below the diagonal
+			int p = k;
+			for (int i = k + 1; i < n; i++)
+				if (Math.abs(lu[i * n + k]) > Math.abs(lu[p * n + k]))
+					p = i;
+
+			if (p != k)
+			{
+				swapRows(lu, n, p, k);
+				int swap = pivot[p];
+				pivot[p] = pivot[k];
+				pivot[k] = swap;
+				pivotSign = -pivotSign;
+			}
+
+			double diagonal = lu[k * n + k];
+			if (diagonal == 0)
+			{
+				singular = true;
+				continue;
+			}
+
+			// eliminate below the pivot, the updates walk rows k & i sequentially
+			int rowK = k * n;
+			for (int i = k + 1; i < n; i++)
+			{
+				int rowI = i * n;
+				double factor = lu[rowI + k] /= diagonal;
+				if (factor == 0)
+					continue;
+
+				for (int j = k + 1; j < n; j++)
+					lu[rowI + j] -= factor * lu[rowK + j];
+			}
+		}
+	}
+
+	static void swapRows(double[] values, int columns, int a, int b)
+	{
+		int rowA = a * columns, rowB = b * columns;
+		for (int j = 0; j < columns; j++)
+		{
+			double swap = values[rowA + j];
+			values[rowA + j] = values[rowB + j];
+			values[rowB + j] = swap;
+		}
+	}
+
+	public boolean isSingular()
+	{
+		return singular;
+	}
+
+	public double determinant()
+	{
+		if (singular)
+			return 0;
+
+		double determinant = pivotSign;
+		for (int i = 0; i < n; i++)
+			determinant *= lu[i * n + i];
+		return determinant;
+	}
+
+	/**
+	 * Solves A * X = B for every column of B
+	 */
+	public Matrix solve(Matrix b)
+	{
+		if (b.rows != n)
+			throw new UnsupportedOperationException("Invalid operation between " + n + "x" + n + " and " + b.rows + "x" + b.columns + " matrices");
+		if (singular)
+			throw new UnsupportedOperationException("Singular matrix");
+
+		int columns = b.columns;
+		var x = new Matrix(n, columns);
+
+		// permuted right hand side
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < columns; j++)
+				x.buffer[i * columns + j] = b.at(pivot[i] * columns + j);
+
+		// L * Y = PB, unit diagonal
+		for (int i = 0; i < n; i++)
+		{
+			int rowI = i * columns;
+			for (int k = 0; k < i; k++)
+			{
+				double factor = lu[i * n + k];
+				if (factor == 0)
+					continue;
+
+				int rowK = k * columns;
+				for (int j = 0; j < columns; j++)
+					x.buffer[rowI + j] -= factor * x.buffer[rowK + j];
+			}
+		}
+
+		// U * X = Y
+		for (int i = n - 1; i >= 0; i--)
+		{
+			int rowI = i * columns;
+			for (int k = i + 1; k < n; k++)
+			{
+				double factor = lu[i * n + k];
+				if (factor == 0)
+					continue;
+
+				int rowK = k * columns;
+				for (int j = 0; j < columns; j++)
+					x.buffer[rowI + j] -= factor * x.buffer[rowK + j];
+			}
+
+			double diagonal = lu[i * n + i];
+			for (int j = 0; j < columns; j++)
+				x.buffer[rowI + j] /= diagonal;
+		}
+
+		return x;
+	}
+
+	public Matrix inverse()
+	{
+		return solve(Matrix.identity(n));
+	}
+}
@@ -0,0 +1,202 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * One step of a {@link LayeredNetwork}. Every layer owns the buffers of its output & of the error it passes back,
+ * so forward & backward passes allocate nothing. That also means a layer serves one thread at a time
+ */
+public abstract class Layer
+{
+	// written to model files by ordinal, only ever append
+	enum Type
+	{
+		DENSE, ACTIVATION, DROPOUT, SOFTMAX, CONVOLUTION, MAX_POOL
+	}
+
+	protected final int inputSize, outputSize;
+
+	protected Layer(int inputSize, int outputSize)
+	{
+		if (inputSize < 1 || outputSize < 1)
+			throw new IllegalArgumentException("Invalid layer size " + inputSize + " -> " + outputSize);
+
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+	}
+
+	/**
+	 * The output for the input, the returned buffer is overwritten by the next call. The input has to stay
+	 * unchanged until backward is called
+	 *
+	 * @param training whether the pass is followed by backward, layers like dropout only act while training
+	 */
+	public abstract double[] forward(double[] input, boolean training);
+
+	/**
+	 * Computes the parameter gradients of the last forward pass from the error of its output
+	 *
+	 * @param propagate whether the error of the input is needed, false for the first layer
+	 * @return the error of the input, null if not propagated. The buffer is overwritten by the next call
+	 */
+	public abstract double[] backward(double[] outputError, boolean propagate);
+
+	/**
+	 * Moves the parameters against the gradients of the last backward pass
+	 */
+	public void update(double rate)
+	{
+	}
+
+	/**
+	 * The trainable parameters, empty for layers without any
+	 */
+	public Matrix[] getParameters()
+	{
+		return new Matrix[0];
+	}
+
+	/**
+	 * The gradients of the last backward pass, in the order of getParameters
+	 */
+	public Matrix[] getGradients()
+	{
+		return new Matrix[0];
+	}
+
+	/**
+	 * Overwrites the parameters with new starting values, layers without parameters ignore it
+	 */
+	public void initialize(WeightInitializer initializer, Random random)
+	{
+	}
+
+	public int getParameterCount()
+	{
+		int count = 0;
+		for (Matrix parameter : getParameters())
+			count += parameter.length;
+		return count;
+	}
+
+	/**
+	 * This layer with the activation fused into its output pass, null if it can't take one
+	 */
+	Layer withActivation(ActivationFunction activation)
+	{
+		return null;
+	}
+
+	/**
+	 * A layer with the same configuration & parameters but its own buffers
+	 */
+	public abstract Layer copy();
+
+	public int getInputSize()
+	{
+		return inputSize;
+	}
+
+	public int getOutputSize()
+	{
+		return outputSize;
+	}
+
+	abstract Type getType();
+
+	/**
+	 * Bytes written by putBytes, the type included
+	 */
+	int getByteCount()
+	{
+		return 3 * Integer.BYTES;
+	}
+
+	/**
+	 * Writes the type & sizes, subclasses append their configuration & parameters
+	 */
+	void putBytes(ByteBuffer buffer)
+	{
+		buffer.putInt(getType().ordinal());
+		buffer.putInt(inputSize);
+		buffer.putInt(outputSize);
+	}
+
+	static Layer fromByteBuffer(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < 3 * Integer.BYTES)
+			throw new IllegalArgumentException("Malformed bytes for network.Layer");
+
+		int ordinal = buffer.getInt();
+		if (ordinal < 0 || ordinal >= Type.values().length)
+			throw new IllegalArgumentException("Unknown layer type " + ordinal);
+
+		int inputSize = buffer.getInt();
+		int outputSize = buffer.getInt();
+
+		Layer layer;
+		switch (Type.values()[ordinal])
+		{
+			case DENSE:
+				layer = DenseLayer.fromByteBuffer(buffer, inputSize, outputSize);
+				break;
+			case ACTIVATION:
+				layer = new ActivationLayer(inputSize, ActivationFunction.forName(getName(buffer)));
+				break;
+			case DROPOUT:
+				layer = new DropoutLayer(inputSize, buffer.getDouble(), buffer.getLong());
+				break;
+			case SOFTMAX:
+				layer = new SoftmaxLayer(inputSize);
+				break;
+			case CONVOLUTION:
+				layer = ConvolutionLayer.fromByteBuffer(buffer);
+				break;
+			case MAX_POOL:
+				layer = new MaxPoolLayer(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown layer type " + ordinal);
+		}
+
+		if (layer.inputSize != inputSize || layer.outputSize != outputSize)
+			throw new IllegalArgumentException("Malformed bytes for " + layer + ", expected " + inputSize + " -> " + outputSize
+				+ ", got " + layer.inputSize + " -> " + layer.outputSize);
+		return layer;
+	}
+
+	static int nameBytes(ActivationFunction function)
+	{
+		return Integer.BYTES + (function == null ? 0 : nameOf(function).getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	/**
+	 * Writes the name of the function, an empty name for none
+	 */
+	static void putName(ByteBuffer buffer, ActivationFunction function)
+	{
+		byte[] name = function == null ? new byte[0] : nameOf(function).getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(name.length);
+		buffer.put(name);
+	}
+
+	static String getName(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException("Malformed bytes for network.Layer");
+
+		byte[] name = new byte[length];
+		buffer.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	private static String nameOf(ActivationFunction function)
+	{
+		if (function.getName() == null)
+			throw new IllegalArgumentException("Custom activation functions can't be saved");
+		return function.getName();
+	}
+}
@@ -0,0 +1,558 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Network made of a sequence of {@link Layer} objects, each configured on its own. Built with a {@link Builder}
+ * that checks every shape while the network is described, or loaded from a file, files of a
+ * {@link DeepNeuralNetwork} included. The layers reuse their buffers, so feed & train are synchronized, while
+ * feedBatch runs on copies & can be called from many threads at once
+ */
+public class LayeredNetwork
+{
+	// starts files of layered networks, files of a DeepNeuralNetwork start with their input size instead
+	private static final int MAGIC = 0x4C415931; // "LAY1"
+
+	private final Layer[] layers;
+	private final int inputSize, outputSize;
+
+	protected double learningRate = 0.1;
+	protected LearningRateSchedule learningRateSchedule = LearningRateSchedule.CONSTANT;
+	protected long trainedSamples;
+
+	// bumped whenever the parameters change, so the copies used by feedBatch are refreshed
+	private volatile long parameterVersion;
+	private final ConcurrentLinkedQueue<Replica> replicas = new ConcurrentLinkedQueue<>();
+
+	LayeredNetwork(Layer[] layers)
+	{
+		if (layers.length == 0)
+			throw new IllegalArgumentException("A network needs at least one layer");
+
+		for (int i = 1; i < layers.length; i++)
+		{
+			if (layers[i].getInputSize() != layers[i - 1].getOutputSize())
+				throw new IllegalArgumentException("Layer " + i + " " + layers[i] + " expects " + layers[i].getInputSize()
+					+ " inputs, layer " + (i - 1) + " " + layers[i - 1] + " outputs " + layers[i - 1].getOutputSize());
+		}
+
+		this.layers = layers;
+		this.inputSize = layers[0].getInputSize();
+		this.outputSize = layers[layers.length - 1].getOutputSize();
+	}
+
+	/**
+	 * The same network as layers, each weight matrix becomes a dense layer with the network's activation fused in
+	 */
+	public static LayeredNetwork fromNetwork(DeepNeuralNetwork network)
+	{
+		Layer[] layers = new Layer[network.getLayerCount()];
+		for (int i = 0; i < layers.length; i++)
+		{
+			Matrix weight = network.getWeights(i);
+			Matrix bias = network.getBiases(i);
+
+			var weights = new Matrix(weight.rows, weight.columns);
+			var biases = new Matrix(bias.rows, 1);
+			weights.copyFrom(weight);
+			biases.copyFrom(bias);
+			layers[i] = new DenseLayer(weights, biases, network.getActivationFunction());
+		}
+
+		var layered = new LayeredNetwork(layers);
+		layered.learningRate = network.getLearningRate();
+		layered.learningRateSchedule = network.getLearningRateSchedule();
+		layered.trainedSamples = network.getTrainedSamples();
+		return layered;
+	}
+
+	public synchronized double[] feed(double... input)
+	{
+		if (input.length != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + input.length);
+
+		double[] activation = input;
+		for (Layer layer : layers)
+			activation = layer.forward(activation, false);
+
+		return activation.clone();
+	}
+
+	/**
+	 * Feeds a whole batch, each column of inputs is one sample. Safe to call from several threads, each call
+	 * borrows its own copy of the layers
+	 *
+	 * @return the outputs, one column per sample
+	 */
+	public Matrix feedBatch(Matrix inputs)
+	{
+		if (inputs.rows != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + inputs.rows);
+
+		Replica replica = replicas.poll();
+		if (replica == null || replica.version != parameterVersion)
+			replica = new Replica();
+
+		try
+		{
+			var outputs = new Matrix(outputSize, inputs.columns);
+			double[] input = new double[inputSize];
+
+			for (int j = 0; j < inputs.columns; j++)
+			{
+				double[] activation = inputs.getColumn(j, input);
+				for (Layer layer : replica.layers)
+					activation = layer.forward(activation, false);
+
+				for (int i = 0; i < outputSize; i++)
+					outputs.buffer[i * outputs.columns + j] = activation[i];
+			}
+
+			return outputs;
+		} finally
+		{
+			replicas.offer(replica);
+		}
+	}
+
+	/**
+	 * Reinitializes every layer with parameters, reproducibly for the same seed
+	 */
+	public synchronized void initialize(WeightInitializer initializer, long seed)
+	{
+		var random = new Random(seed);
+		for (Layer layer : layers)
+			layer.initialize(initializer, random);
+		parametersChanged();
+	}
+
+	/**
+	 * Has to be called after writing to the parameters from outside, so batches don't use stale copies
+	 */
+	public void parametersChanged()
+	{
+		parameterVersion++;
+	}
+
+	public long getParameterVersion()
+	{
+		return parameterVersion;
+	}
+
+	/**
+	 * One step of gradient descent on the squared error of the sample
+	 *
+	 * @return the squared error of every output before the step
+	 */
+	public synchronized Matrix train(double[] input, double[] expected)
+	{
+		if (input.length != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + input.length);
+		if (expected.length != outputSize)
+			throw new IllegalArgumentException("Expected " + outputSize + " outputs, got " + expected.length);
+
+		double[] activation = input;
+		for (Layer layer : layers)
+			activation = layer.forward(activation, true);
+
+		var cost = new Matrix(outputSize, 1);
+		double[] error = new double[outputSize];
+		for (int i = 0; i < outputSize; i++)
+		{
+			double difference = activation[i] - expected[i];
+			cost.buffer[i] = difference * difference;
+			error[i] = 2 * difference;
+		}
+
+		// the error of the input layer is never used
+		for (int i = layers.length - 1; i >= 0; i--)
+			error = layers[i].backward(error, i > 0);
+
+		double rate = learningRate * learningRateSchedule.factor(trainedSamples++);
+		for (Layer layer : layers)
+			layer.update(rate);
+		parameterVersion++;
+
+		return cost;
+	}
+
+	/**
+	 * A deep copy with its own buffers, for feeding from several threads at once
+	 */
+	public LayeredNetwork copy()
+	{
+		Layer[] copies = new Layer[layers.length];
+		for (int i = 0; i < layers.length; i++)
+			copies[i] = layers[i].copy();
+
+		var copy = new LayeredNetwork(copies);
+		copy.learningRate = learningRate;
+		copy.learningRateSchedule = learningRateSchedule;
+		copy.trainedSamples = trainedSamples;
+		return copy;
+	}
+
+	public List<Layer> getLayers()
+	{
+		return List.of(layers);
+	}
+
+	public int getLayerCount()
+	{
+		return layers.length;
+	}
+
+	public Layer getLayer(int index)
+	{
+		return layers[index];
+	}
+
+	public int getParameterCount()
+	{
+		int count = 0;
+		for (Layer layer : layers)
+			count += layer.getParameterCount();
+		return count;
+	}
+
+	public int getInputSize()
+	{
+		return inputSize;
+	}
+
+	public int getOutputSize()
+	{
+		return outputSize;
+	}
+
+	public void putBytes(ByteBuffer buffer)
+	{
+		buffer.putInt(MAGIC);
+		buffer.putInt(layers.length);
+		for (Layer layer : layers)
+			layer.putBytes(buffer);
+
+		// training state
+		buffer.putLong(trainedSamples);
+		buffer.putDouble(learningRate);
+		learningRateSchedule.putBytes(buffer);
+	}
+
+	public byte[] getBytes()
+	{
+		int bytes = 2 * Integer.BYTES + Long.BYTES + Double.BYTES + LearningRateSchedule.BYTES;
+		for (Layer layer : layers)
+			bytes += layer.getByteCount();
+
+		ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		putBytes(buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * Reads a layered network, or converts a network written by {@link DeepNeuralNetwork}
+	 */
+	public static LayeredNetwork fromBytes(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < Integer.BYTES || buffer.getInt(buffer.position()) != MAGIC)
+			return fromNetwork(DeepNeuralNetwork.fromBytes(buffer));
+
+		buffer.getInt();
+		int count = buffer.getInt();
+		if (count < 1)
+			throw new IllegalArgumentException("Malformed bytes for network.LayeredNetwork");
+
+		Layer[] layers = new Layer[count];
+		for (int i = 0; i < count; i++)
+			layers[i] = Layer.fromByteBuffer(buffer);
+
+		var network = new LayeredNetwork(layers);
+		network.trainedSamples = buffer.getLong();
+		network.learningRate = buffer.getDouble();
+		network.learningRateSchedule = LearningRateSchedule.fromByteBuffer(buffer);
+		return network;
+	}
+
+	public void writeToFile(Path path) throws IOException
+	{
+		byte[] bytes = getBytes();
+
+		// write next to the target & rename, so readers never see a partially written network
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temporary, bytes);
+		try
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public static LayeredNetwork readFromFile(String path) throws IOException
+	{
+		return readFromFile(Paths.get(path));
+	}
+
+	public static LayeredNetwork readFromFile(Path path) throws IOException
+	{
+		return fromBytes(ByteBuffer.wrap(Files.readAllBytes(path)));
+	}
+
+	public final double getLearningRate()
+	{
+		return learningRate;
+	}
+
+	public final void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+
+	public final LearningRateSchedule getLearningRateSchedule()
+	{
+		return learningRateSchedule;
+	}
+
+	public final void setLearningRateSchedule(LearningRateSchedule learningRateSchedule)
+	{
+		if (learningRateSchedule == null)
+			throw new IllegalArgumentException("Schedule must not be null");
+		this.learningRateSchedule = learningRateSchedule;
+	}
+
+	public final long getTrainedSamples()
+	{
+		return trainedSamples;
+	}
+
+	public final void setTrainedSamples(long trainedSamples)
+	{
+		this.trainedSamples = trainedSamples;
+	}
+
+	/**
+	 * Layers of their own for one feedBatch call at a time
+	 */
+	private final class Replica
+	{
+		final long version;
+		final Layer[] layers;
+
+		Replica()
+		{
+			synchronized (LayeredNetwork.this)
+			{
+				version = parameterVersion;
+				layers = new Layer[LayeredNetwork.this.layers.length];
+				for (int i = 0; i < layers.length; i++)
+					layers[i] = LayeredNetwork.this.layers[i].copy();
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		var builder = new StringBuilder().append(inputSize);
+		for (Layer layer : layers)
+			builder.append(" -> ").append(layer);
+		return builder.toString();
+	}
+
+	/**
+	 * Describes a network layer by layer, every call checks the new layer against the current output shape so
+	 * shape mistakes fail where they are made. A dense or convolution layer directly followed by an activation is
+	 * fused into one
+	 */
+	public static final class Builder
+	{
+		private final int inputSize;
+		private final List<Layer> layers = new ArrayList<>();
+		private long seed = System.nanoTime();
+
+		// the initializer of every layer, null keeps the layer's own uniform [-1, 1] start
+		private final List<WeightInitializer> initializers = new ArrayList<>();
+		private WeightInitializer initializer;
+
+		// shape of the current output, images are channels x height x width, flat values are size x 1 x 1
+		private int channels, height, width;
+
+		public Builder(int inputSize)
+		{
+			this(inputSize, 1, 1);
+		}
+
+		/**
+		 * Input of images stored channel by channel, row major
+		 */
+		public Builder(int channels, int height, int width)
+		{
+			if (channels < 1 || height < 1 || width < 1)
+				throw new IllegalArgumentException("Invalid input shape " + channels + "x" + height + "x" + width);
+
+			this.inputSize = channels * height * width;
+			this.channels = channels;
+			this.height = height;
+			this.width = width;
+		}
+
+		/**
+		 * Initializes the layers added afterwards with the initializer, null for uniform [-1, 1]
+		 */
+		public Builder initializer(WeightInitializer initializer)
+		{
+			this.initializer = initializer;
+			return this;
+		}
+
+		/**
+		 * Seeds the random parts of the layers added afterwards, like dropout masks & initial weights
+		 */
+		public Builder seed(long seed)
+		{
+			this.seed = seed;
+			return this;
+		}
+
+		/**
+		 * A linear fully connected layer, add an activation to make it non linear
+		 */
+		public Builder dense(int outputSize)
+		{
+			if (outputSize < 1)
+				throw new IllegalArgumentException("Invalid dense layer size " + outputSize);
+			return add(new DenseLayer(size(), outputSize, null));
+		}
+
+		public Builder activation(ActivationFunction activation)
+		{
+			if (activation == null)
+				throw new IllegalArgumentException("Activation must not be null");
+
+			Layer fused = layers.isEmpty() ? null : layers.get(layers.size() - 1).withActivation(activation);
+			if (fused != null)
+			{
+				layers.set(layers.size() - 1, fused);
+				return this;
+			}
+
+			return add(new ActivationLayer(size(), activation));
+		}
+
+		/**
+		 * A linear convolution of the current image with filters of kernel x kernel weights per channel, add an
+		 * activation to make it non linear
+		 */
+		public Builder convolution(int filters, int kernel)
+		{
+			if (filters < 1)
+				throw new IllegalArgumentException("Invalid filter count " + filters);
+			if (kernel < 1 || kernel > height || kernel > width)
+				throw new IllegalArgumentException("A " + kernel + "x" + kernel + " kernel doesn't fit the " + channels + "x" + height + "x" + width + " output of the previous layer");
+
+			return add(new ConvolutionLayer(channels, height, width, filters, kernel, null));
+		}
+
+		public Builder maxPool(int size)
+		{
+			if (size < 1 || size > height || size > width)
+				throw new IllegalArgumentException("A " + size + "x" + size + " pool doesn't fit the " + channels + "x" + height + "x" + width + " output of the previous layer");
+
+			return add(new MaxPoolLayer(channels, height, width, size));
+		}
+
+		public Builder dropout(double rate)
+		{
+			return add(new DropoutLayer(size(), rate, seed++));
+		}
+
+		public Builder softmax()
+		{
+			return add(new SoftmaxLayer(size()));
+		}
+
+		/**
+		 * Appends any layer, its input size has to match the current output size
+		 */
+		public Builder add(Layer layer)
+		{
+			if (layer.getInputSize() != size())
+				throw new IllegalArgumentException("Layer " + layer + " expects " + layer.getInputSize() + " inputs, the previous layer outputs " + size());
+
+			layers.add(layer);
+			initializers.add(initializer);
+
+			// element wise layers keep the shape, images stay images
+			if (layer instanceof ConvolutionLayer)
+			{
+				var convolution = (ConvolutionLayer) layer;
+				setShape(convolution.getFilters(), convolution.getOutputHeight(), convolution.getOutputWidth());
+			} else if (layer instanceof MaxPoolLayer)
+			{
+				var pool = (MaxPoolLayer) layer;
+				setShape(channels, pool.getOutputHeight(), pool.getOutputWidth());
+			} else if (layer.getOutputSize() != layer.getInputSize())
+			{
+				setShape(layer.getOutputSize(), 1, 1);
+			}
+			return this;
+		}
+
+		private int size()
+		{
+			return channels * height * width;
+		}
+
+		private void setShape(int channels, int height, int width)
+		{
+			this.channels = channels;
+			this.height = height;
+			this.width = width;
+		}
+
+		public LayeredNetwork build()
+		{
+			if (layers.isEmpty())
+				throw new IllegalArgumentException("A network of " + inputSize + " inputs needs at least one layer");
+
+			var random = new Random(seed);
+			for (int i = 0; i < layers.size(); i++)
+				if (initializers.get(i) != null)
+					layers.get(i).initialize(initializers.get(i), random);
+
+			return new LayeredNetwork(layers.toArray(new Layer[0]));
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		// the checked in network read as layers gives the same outputs
+		DeepNeuralNetwork network = DeepNeuralNetwork.readFromFile("networks/complex_digits.dat");
+		LayeredNetwork layered = LayeredNetwork.readFromFile("networks/complex_digits.dat");
+		System.out.println(layered);
+
+		double[] input = new double[network.getInputSize()];
+		Arrays.fill(input, 0.5);
+		System.out.println(Arrays.toString(network.feed(input)));
+		System.out.println(Arrays.toString(layered.feed(input)));
+
+		// test serialization
+		var built = new Builder(2).dense(3).activation(ActivationFunction.RELU).dropout(0.5).dense(2).softmax().build();
+		var read = LayeredNetwork.fromBytes(ByteBuffer.wrap(built.getBytes()));
+		System.out.println(read);
+		System.out.println(Arrays.toString(built.feed(1, 1)));
+		System.out.println(Arrays.toString(read.feed(1, 1)));
+	}
+}
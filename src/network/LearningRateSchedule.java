@@ -0,0 +1,168 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scales a network's learning rate depending on how many samples it has been trained on
+ */
+public final class LearningRateSchedule
+{
+	private enum Kind
+	{
+		CONSTANT, STEP, EXPONENTIAL, COSINE, ONE_CYCLE
+	}
+
+	/**
+	 * Always uses the base learning rate
+	 */
+	public static final LearningRateSchedule CONSTANT = new LearningRateSchedule(Kind.CONSTANT, 0, 0, 0, 0, 1, 0);
+
+	public static final int BYTES = Integer.BYTES + 4 * Double.BYTES + 2 * Long.BYTES;
+
+	private final Kind kind;
+	private final double a, b, c, d;
+	private final long unit, warmup;
+
+	private LearningRateSchedule(Kind kind, double a, double b, double c, double d, long unit, long warmup)
+	{
+		if (unit < 1)
+			throw new IllegalArgumentException("Invalid schedule unit " + unit);
+		if (warmup < 0)
+			throw new IllegalArgumentException("Invalid warmup length " + warmup);
+
+		this.kind = kind;
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.d = d;
+		this.unit = unit;
+		this.warmup = warmup;
+	}
+
+	/**
+	 * Multiplies the rate by gamma every stepSize units
+	 */
+	public static LearningRateSchedule stepDecay(long stepSize, double gamma)
+	{
+		if (stepSize < 1)
+			throw new IllegalArgumentException("Invalid step size " + stepSize);
+		return new LearningRateSchedule(Kind.STEP, stepSize, gamma, 0, 0, 1, 0);
+	}
+
+	/**
+	 * Multiplies the rate by gamma every unit
+	 */
+	public static LearningRateSchedule exponential(double gamma)
+	{
+		return new LearningRateSchedule(Kind.EXPONENTIAL, gamma, 0, 0, 0, 1, 0);
+	}
+
+	/**
+	 * Anneals the rate along half a cosine from the base rate down to minFactor times it over length units
+	 */
+	public static LearningRateSchedule cosine(long length, double minFactor)
+	{
+		if (length < 1)
+			throw new IllegalArgumentException("Invalid schedule length " + length);
+		return new LearningRateSchedule(Kind.COSINE, length, minFactor, 0, 0, 1, 0);
+	}
+
+	/**
+	 * Rises linearly from the base rate divided by startDivisor up to the base rate over the first
+	 * peakFraction of length units, then anneals along a cosine down to the base rate divided by endDivisor
+	 */
+	public static LearningRateSchedule oneCycle(long length, double peakFraction, double startDivisor, double endDivisor)
+	{
+		if (length < 1)
+			throw new IllegalArgumentException("Invalid schedule length " + length);
+		if (peakFraction <= 0 || peakFraction >= 1)
+			throw new IllegalArgumentException("Peak fraction must be between 0 and 1, got " + peakFraction);
+		return new LearningRateSchedule(Kind.ONE_CYCLE, length, peakFraction, 1 / startDivisor, 1 / endDivisor, 1, 0);
+	}
+
+	/**
+	 * Same schedule, but measured in epochs of the given amount of samples instead of in samples
+	 */
+	public LearningRateSchedule perEpoch(int epochSize)
+	{
+		return new LearningRateSchedule(kind, a, b, c, d, epochSize, warmup);
+	}
+
+	/**
+	 * Same schedule, additionally ramping the rate up linearly during the first warmupSamples samples
+	 */
+	public LearningRateSchedule withWarmup(long warmupSamples)
+	{
+		return new LearningRateSchedule(kind, a, b, c, d, unit, warmupSamples);
+	}
+
+	/**
+	 * Factor the base learning rate is multiplied with after the given amount of trained samples
+	 */
+	public double factor(long samples)
+	{
+		double factor;
+		double t = unit == 1 ? samples : (double) (samples / unit);
+
+		switch (kind)
+		{
+			case STEP -> factor = Math.pow(b, Math.floor(t / a));
+			case EXPONENTIAL -> factor = Math.pow(a, t);
+			case COSINE -> factor = b + (1 - b) * (1 + Math.cos(Math.PI * Math.min(1, t / a))) / 2;
+			case ONE_CYCLE ->
+			{
+				double peak = a * b;
+				if (t < peak)
+				{
+					factor = c + (1 - c) * t / peak;
+				} else
+				{
+					double progress = Math.min(1, (t - peak) / (a - peak));
+					factor = d + (1 - d) * (1 + Math.cos(Math.PI * progress)) / 2;
+				}
+			}
+			default -> factor = 1;
+		}
+
+		if (samples < warmup)
+			factor *= (samples + 1) / (double) warmup;
+
+		return factor;
+	}
+
+	public void putBytes(ByteBuffer buffer)
+	{
+		buffer.putInt(kind.ordinal());
+		buffer.putDouble(a);
+		buffer.putDouble(b);
+		buffer.putDouble(c);
+		buffer.putDouble(d);
+		buffer.putLong(unit);
+		buffer.putLong(warmup);
+	}
+
+	public static LearningRateSchedule fromByteBuffer(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < BYTES)
+			throw new IllegalArgumentException("Malformed bytes for network.LearningRateSchedule");
+
+		int ordinal = buffer.getInt();
+		if (ordinal < 0 || ordinal >= Kind.values().length)
+			throw new IllegalArgumentException("Malformed bytes for network.LearningRateSchedule");
+
+		return new LearningRateSchedule(
+			Kind.values()[ordinal],
+			buffer.getDouble(),
+			buffer.getDouble(),
+			buffer.getDouble(),
+			buffer.getDouble(),
+			buffer.getLong(),
+			buffer.getLong());
+	}
+
+	@Override
+	public String toString()
+	{
+		return kind + "(" + a + ", " + b + ", " + c + ", " + d + ") per " + unit + " samples, warmup " + warmup;
+	}
+}
@@ -1,6 +1,7 @@
 package network;
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.function.Function;
 
@@ -8,7 +9,10 @@ public class Matrix
 {
 	public final int rows, columns;
 
-	private final double[] buffer;
+	// exactly one of buffer & direct backs the matrix, direct ones keep their values outside the heap
+	final double[] buffer;
+	final DoubleBuffer direct;
+	final int offset;
 
 	public final int BYTES;
 	public final int length;
@@ -19,6 +23,11 @@ public class Matrix
 	 * Creates a new network.Matrix with the given width and height
 	 */
 	public Matrix(int rows, int column)
+	{
+		this(rows, column, null, null, 0);
+	}
+
+	private Matrix(int rows, int column, double[] buffer, DoubleBuffer direct, int offset)
 	{
 		this.rows = rows;
 		this.columns = column;
@@ -28,8 +37,14 @@ public class Matrix
 
 
 //		values = new double[rows][columns];
-		buffer = new double[rows * columns];
-		length = buffer.length;
+		this.buffer = buffer == null && direct == null ? new double[rows * columns] : buffer;
+		this.direct = direct;
+		this.offset = offset;
+		length = rows * columns;
+
+		int capacity = direct == null ? this.buffer.length : direct.capacity();
+		if (offset < 0 || offset + length > capacity)
+			throw new IndexOutOfBoundsException("View of " + rows + "x" + columns + " at " + offset + " does not fit into " + capacity + " values");
 
 
 		var byteCount = 0;
@@ -48,6 +63,57 @@ public class Matrix
 		return matrix;
 	}
 
+	/**
+	 * Creates a matrix backed by the given array starting at offset, writes to either are visible in both
+	 */
+	public static Matrix view(double[] buffer, int offset, int rows, int columns)
+	{
+		return new Matrix(rows, columns, buffer, null, offset);
+	}
+
+	/**
+	 * Creates a matrix backed by the given, usually direct or memory mapped, buffer starting at offset
+	 */
+	public static Matrix view(DoubleBuffer buffer, int offset, int rows, int columns)
+	{
+		return new Matrix(rows, columns, null, buffer, offset);
+	}
+
+	/**
+	 * Creates a matrix whose columns are the given arrays, from offset to offset + count
+	 */
+	public static Matrix fromColumns(double[][] arrays, int offset, int count)
+	{
+		var matrix = new Matrix(arrays[offset].length, count);
+
+		for (int j = 0; j < count; j++)
+			if (arrays[offset + j].length != matrix.rows)
+				throw new IllegalArgumentException("Expected column of size " + matrix.rows + ", got " + arrays[offset + j].length);
+
+		// transpose in tiles, so the strided writes stay within a few cache lines
+		final int tile = 16;
+		for (int i0 = 0; i0 < matrix.rows; i0 += tile)
+		{
+			int i1 = Math.min(i0 + tile, matrix.rows);
+			for (int j = 0; j < count; j++)
+			{
+				double[] array = arrays[offset + j];
+				for (int i = i0; i < i1; i++)
+					matrix.buffer[i * count + j] = array[i];
+			}
+		}
+
+		return matrix;
+	}
+
+	public static Matrix identity(int size)
+	{
+		var matrix = new Matrix(size, size);
+		for (int i = 0; i < size; i++)
+			matrix.buffer[i * size + i] = 1;
+		return matrix;
+	}
+
 	/**
 	 * Created a column vector with the given size
 	 */
@@ -62,12 +128,41 @@ public class Matrix
 	public static Matrix random(int width, int height, double min, double max)
 	{
 		var matrix = new Matrix(width, height);
-		for (int i = 0; i < matrix.buffer.length; i++)
-			matrix.buffer[i] = Math.random() * (max - min) + min;
-
+		matrix.fillRandom(min, max);
 		return matrix;
 	}
 
+	/**
+	 * Overwrites every element with a random value between min and max
+	 */
+	public void fillRandom(double min, double max)
+	{
+		for (int i = 0; i < length; i++)
+			put(i, Math.random() * (max - min) + min);
+	}
+
+	// element access by index into the row major values, for code that has to handle both storages
+	double at(int i)
+	{
+		return direct == null ? buffer[offset + i] : direct.get(offset + i);
+	}
+
+	void put(int i, double value)
+	{
+		if (direct == null)
+			buffer[offset + i] = value;
+		else
+			direct.put(offset + i, value);
+	}
+
+	/**
+	 * Whether the values live outside the java heap
+	 */
+	public boolean isDirect()
+	{
+		return direct != null;
+	}
+
 	/**
 	 * Adds the given value to each element in the matrix, and returns
 	 * the result as a new matrix
@@ -79,8 +174,8 @@ public class Matrix
 
 		var result = new Matrix(rows, columns);
 
-		for (int i = 0; i < buffer.length; i++)
-			result.buffer[i] = buffer[i] + other.buffer[i];
+		for (int i = 0; i < length; i++)
+			result.buffer[i] = at(i) + other.at(i);
 
 		return result;
 	}
@@ -104,13 +199,253 @@ public class Matrix
 		if (columns != other.rows)
 			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + other.rows + "x" + other.columns + " matrices");
 
-		var result = new Matrix(rows, other.columns);
+		return multiplyInto(other, new Matrix(rows, other.columns));
+	}
+
+	/**
+	 * Multiplies this matrix with other, overwriting result with the product
+	 */
+	public Matrix multiplyInto(Matrix other, Matrix result)
+	{
+		if (columns != other.rows)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + other.rows + "x" + other.columns + " matrices");
+		if (result.rows != rows || result.columns != other.columns)
+			throw new UnsupportedOperationException("Invalid result size, Expected " + rows + "x" + other.columns + ", got " + result.rows + "x" + result.columns);
 
-		// for each element in the matrix, multiply the corresponding element in the other matrix
+		var event = new NetworkEvents.MatrixMultiplyEvent();
+		event.begin();
+
+		if (direct == null && other.direct == null && result.direct == null && other.columns == 1)
+		{
+			// matrix-vector, one dot product per row
+			for (int i = 0; i < rows; i++)
+			{
+				int row = offset + i * columns;
+				double sum = 0;
+				for (int k = 0; k < columns; k++)
+					sum += buffer[row + k] * other.buffer[other.offset + k];
+				result.buffer[result.offset + i] = sum;
+			}
+		} else if (other.direct == null && result.direct == null)
+		{
+			Arrays.fill(result.buffer, result.offset, result.offset + result.length, 0);
+
+			// i-k-j order so the inner loop walks both row buffers sequentially
+			for (int i = 0; i < rows; i++)
+			{
+				int resultRow = result.offset + i * result.columns;
+				for (int k = 0; k < columns; k++)
+				{
+					double value = at(i * columns + k);
+					int otherRow = other.offset + k * other.columns;
+					for (int j = 0; j < other.columns; j++)
+						result.buffer[resultRow + j] += value * other.buffer[otherRow + j];
+				}
+			}
+		} else
+		{
+			for (int i = 0; i < rows; i++)
+			{
+				for (int j = 0; j < other.columns; j++)
+				{
+					double sum = 0;
+					for (int k = 0; k < columns; k++)
+						sum += at(i * columns + k) * other.at(k * other.columns + j);
+					result.put(i * result.columns + j, sum);
+				}
+			}
+		}
+
+		event.end();
+		long flops = 2L * rows * columns * other.columns;
+		if (flops >= NetworkEvents.MULTIPLY_THRESHOLD && event.shouldCommit())
+		{
+			event.rows = rows;
+			event.inner = columns;
+			event.columns = other.columns;
+			event.flops = flops;
+			event.commit();
+		}
+
+		return result;
+	}
+
+	/**
+	 * this^T * other without copying this matrix into its transpose
+	 */
+	public Matrix transposeMultiply(Matrix other)
+	{
+		return transposeMultiplyInto(other, new Matrix(columns, other.columns));
+	}
+
+	/**
+	 * this^T * other, overwriting result with the product
+	 */
+	public Matrix transposeMultiplyInto(Matrix other, Matrix result)
+	{
+		if (rows != other.rows)
+			throw new UnsupportedOperationException("Invalid operation between " + columns + "x" + rows + " and " + other.rows + "x" + other.columns + " matrices");
+		if (result.rows != columns || result.columns != other.columns || result.direct != null)
+			throw new UnsupportedOperationException("Invalid result size, Expected " + columns + "x" + other.columns + ", got " + result.rows + "x" + result.columns);
+
+		Arrays.fill(result.buffer, result.offset, result.offset + result.length, 0);
+
+		// k-i-j order, row k of this scales row k of other into every result row i
+		for (int k = 0; k < rows; k++)
+		{
+			int otherRow = k * other.columns;
+			for (int i = 0; i < columns; i++)
+			{
+				double value = at(k * columns + i);
+				if (value == 0)
+					continue;
+
+				int resultRow = result.offset + i * other.columns;
+				for (int j = 0; j < other.columns; j++)
+					result.buffer[resultRow + j] += value * other.at(otherRow + j);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * this * other^T, overwriting result with the product. Every element is a dot product of two rows, so both
+	 * are read sequentially
+	 */
+	public Matrix multiplyTransposeInto(Matrix other, Matrix result)
+	{
+		if (columns != other.columns)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + other.columns + "x" + other.rows + " matrices");
+		if (result.rows != rows || result.columns != other.rows || result.direct != null)
+			throw new UnsupportedOperationException("Invalid result size, Expected " + rows + "x" + other.rows + ", got " + result.rows + "x" + result.columns);
+
+		boolean heap = direct == null && other.direct == null;
 		for (int i = 0; i < rows; i++)
+		{
+			int row = offset + i * columns;
+			for (int j = 0; j < other.rows; j++)
+			{
+				int otherRow = other.offset + j * columns;
+				double sum = 0;
+				if (heap)
+				{
+					for (int k = 0; k < columns; k++)
+						sum += buffer[row + k] * other.buffer[otherRow + k];
+				} else
+				{
+					for (int k = 0; k < columns; k++)
+						sum += at(i * columns + k) * other.at(j * columns + k);
+				}
+				result.buffer[result.offset + i * result.columns + j] = sum;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Multiplies this matrix with a column vector of which only the given count of indices are nonzero,
+	 * skipping the columns that would be multiplied by zero
+	 */
+	public Matrix multiplySparseColumn(double[] vector, int[] nonZero, int count)
+	{
+		if (vector.length != columns)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + vector.length + "x1 matrices");
+
+		var result = new Matrix(rows, 1);
+
+		for (int i = 0; i < rows; i++)
+		{
+			int row = i * columns;
+			double sum = 0;
+			for (int n = 0; n < count; n++)
+			{
+				int k = nonZero[n];
+				sum += at(row + k) * vector[k];
+			}
+			result.buffer[i] = sum;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Multiplies this matrix with a matrix whose columns are mostly zero, every column only touches the columns of
+	 * this matrix that its nonzero values select
+	 */
+	public Matrix multiplySparseColumns(Matrix other)
+	{
+		if (columns != other.rows)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + other.rows + "x" + other.columns + " matrices");
+
+		var result = new Matrix(rows, other.columns);
+
+		// compressed sparse columns of other, built with sequential passes over its rows
+		int[] columnPointers = new int[other.columns + 1];
+		for (int k = 0; k < other.rows; k++)
 			for (int j = 0; j < other.columns; j++)
-				for (int k = 0; k < columns; k++)
-					result.set(i, j, result.get(i, j) + get(i, k) * other.get(k, j));
+				if (other.at(k * other.columns + j) != 0)
+					columnPointers[j + 1]++;
+		for (int j = 0; j < other.columns; j++)
+			columnPointers[j + 1] += columnPointers[j];
+
+		int[] fill = Arrays.copyOf(columnPointers, other.columns);
+		int[] rowIndices = new int[columnPointers[other.columns]];
+		double[] values = new double[rowIndices.length];
+		for (int k = 0; k < other.rows; k++)
+		{
+			for (int j = 0; j < other.columns; j++)
+			{
+				double value = other.at(k * other.columns + j);
+				if (value != 0)
+				{
+					rowIndices[fill[j]] = k;
+					values[fill[j]++] = value;
+				}
+			}
+		}
+
+		for (int j = 0; j < other.columns; j++)
+		{
+			for (int i = 0; i < rows; i++)
+			{
+				int row = i * columns;
+				double sum = 0;
+				if (direct == null)
+				{
+					row += offset;
+					for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++)
+						sum += buffer[row + rowIndices[p]] * values[p];
+				} else
+				{
+					for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++)
+						sum += at(row + rowIndices[p]) * values[p];
+				}
+				result.buffer[i * other.columns + j] = sum;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the given column vector to every column of this matrix, and returns
+	 * the result as a new matrix
+	 */
+	public Matrix addColumn(Matrix column)
+	{
+		if (column.rows != rows || column.columns != 1)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + column.rows + "x" + column.columns + " matrices");
+
+		var result = new Matrix(rows, columns);
+
+		for (int i = 0; i < rows; i++)
+		{
+			double value = column.at(i);
+			for (int j = 0; j < columns; j++)
+				result.buffer[i * columns + j] = at(i * columns + j) + value;
+		}
 
 		return result;
 	}
@@ -133,7 +468,7 @@ public class Matrix
 
 		// for each element in the matrix, add the corresponding element in the other matrix
 		for (int i = 0; i < length; i++)
-			result.buffer[i] = buffer[i] * other.buffer[i];
+			result.buffer[i] = at(i) * other.at(i);
 		return result;
 	}
 
@@ -143,7 +478,7 @@ public class Matrix
 		var result = new Matrix(rows, columns);
 
 		for (int i = 0; i < length; i++)
-			result.buffer[i] = map.apply(buffer[i]);
+			result.buffer[i] = map.apply(at(i));
 		return result;
 	}
 
@@ -160,30 +495,132 @@ public class Matrix
 	}
 
 
+	/**
+	 * Inverse through an LU decomposition with partial pivoting
+	 */
 	public Matrix inverse()
+	{
+		return lu().inverse();
+	}
+
+	/**
+	 * Overwrites this matrix with its inverse, Gauss-Jordan elimination with partial pivoting needs no second matrix
+	 */
+	public void invertInPlace()
 	{
 		if (rows != columns)
 			throw new UnsupportedOperationException("Invalid operation on " + rows + "x" + columns + " matrix");
 
-		var result = new Matrix(rows, columns);
+		int n = rows;
+		int[] swaps = new int[n];
 
-		// for each element in the matrix, add the corresponding element in the other matrix
-		for (int i = 0; i < rows; i++)
-			for (int j = 0; j < columns; j++)
-				result.set(i, j, get(i, j));
+		for (int k = 0; k < n; k++)
+		{
+			int p = k;
+			for (int i = k + 1; i < n; i++)
+				if (Math.abs(at(i * n + k)) > Math.abs(at(p * n + k)))
+					p = i;
 
-		return result;
+			swaps[k] = p;
+			if (p != k)
+			{
+				for (int j = 0; j < n; j++)
+				{
+					double swap = at(k * n + j);
+					put(k * n + j, at(p * n + j));
+					put(p * n + j, swap);
+				}
+			}
+
+			double pivot = at(k * n + k);
+			if (pivot == 0)
+				throw new UnsupportedOperationException("Singular matrix");
+
+			// column k becomes the inverse's, its identity entry is replaced in place
+			put(k * n + k, 1);
+			for (int j = 0; j < n; j++)
+				put(k * n + j, at(k * n + j) / pivot);
+
+			for (int i = 0; i < n; i++)
+			{
+				if (i == k)
+					continue;
+
+				double factor = at(i * n + k);
+				if (factor == 0)
+					continue;
+
+				put(i * n + k, 0);
+				for (int j = 0; j < n; j++)
+					put(i * n + j, at(i * n + j) - factor * at(k * n + j));
+			}
+		}
+
+		// row swaps of the matrix are column swaps of its inverse, undone in reverse order
+		for (int k = n - 1; k >= 0; k--)
+		{
+			if (swaps[k] == k)
+				continue;
+
+			for (int i = 0; i < n; i++)
+			{
+				double swap = at(i * n + k);
+				put(i * n + k, at(i * n + swaps[k]));
+				put(i * n + swaps[k], swap);
+			}
+		}
+	}
+
+	public LUDecomposition lu()
+	{
+		return new LUDecomposition(this);
+	}
+
+	public CholeskyDecomposition cholesky()
+	{
+		return new CholeskyDecomposition(this);
+	}
+
+	public QRDecomposition qr()
+	{
+		return new QRDecomposition(this);
+	}
+
+	/**
+	 * Overwrites this matrix with the values of another one of the same size
+	 */
+	public void copyFrom(Matrix other)
+	{
+		if (rows != other.rows || columns != other.columns)
+			throw new UnsupportedOperationException("Invalid network.Matrix Size, Expected " + rows + "x" + columns + ", got " + other.rows + "x" + other.columns);
+
+		if (direct == null && other.direct == null)
+		{
+			System.arraycopy(other.buffer, other.offset, buffer, offset, length);
+		} else
+		{
+			for (int i = 0; i < length; i++)
+				put(i, other.at(i));
+		}
+	}
+
+	/**
+	 * Index of the first element inside the backing array or buffer
+	 */
+	public int getOffset()
+	{
+		return offset;
 	}
 
 	public void set(int r, int c, double value)
 	{
-		buffer[r * columns + c] = value;
+		put(r * columns + c, value);
 	}
 
 	public double get(int r, int c)
 	{
 		// turn the row and column into a single index
-		return buffer[r * columns + c];
+		return at(r * columns + c);
 	}
 
 	public double[] asColumn()
@@ -192,7 +629,21 @@ public class Matrix
 			throw new UnsupportedOperationException("Invalid operation, Expected " + rows + "x" + columns + " to be a column matrix");
 
 		var result = new double[rows];
-		System.arraycopy(buffer, 0, result, 0, rows);
+		if (direct == null)
+			System.arraycopy(buffer, offset, result, 0, rows);
+		else
+			direct.get(offset, result);
+		return result;
+	}
+
+	/**
+	 * Copies the given column into the array
+	 */
+	public double[] getColumn(int column, double[] result)
+	{
+		for (int i = 0; i < rows; i++)
+			result[i] = at(i * columns + column);
+
 		return result;
 	}
 
@@ -207,7 +658,12 @@ public class Matrix
 		buffer.putInt(rows);
 		buffer.putInt(columns);
 
-		for (double value : this.buffer) buffer.putDouble(value);
+		// bulk copy through a view instead of one putDouble per value
+		if (direct == null)
+			buffer.asDoubleBuffer().put(this.buffer, offset, length);
+		else
+			buffer.asDoubleBuffer().put(direct.slice(offset, length));
+		buffer.position(buffer.position() + length * Double.BYTES);
 
 		return buffer.array();
 	}
@@ -230,15 +686,39 @@ public class Matrix
 			throw new IllegalArgumentException("Malformed bytes for network.Matrix");
 
 		var mat = new Matrix(width, height);
-
-		for (int i = 0; i < mat.buffer.length; i++)
-		{
-			mat.buffer[i] = buffer.getDouble();
-		}
+		mat.readValues(buffer);
 
 		return mat;
 	}
 
+	/**
+	 * Reads serialized bytes into this matrix, the serialized shape has to match
+	 */
+	public void readFromByteBuffer(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < Integer.BYTES * 2)
+			throw new IllegalArgumentException("Malformed bytes for network.Matrix");
+
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+
+		if (width != rows || height != columns)
+			throw new IllegalArgumentException("Expected a " + rows + "x" + columns + " network.Matrix, got " + width + "x" + height);
+		if (buffer.remaining() < Double.BYTES * length)
+			throw new IllegalArgumentException("Malformed bytes for network.Matrix");
+
+		readValues(buffer);
+	}
+
+	private void readValues(ByteBuffer buffer)
+	{
+		if (direct == null)
+			buffer.asDoubleBuffer().get(this.buffer, offset, length);
+		else
+			direct.slice(offset, length).put(buffer.asDoubleBuffer().limit(length));
+		buffer.position(buffer.position() + length * Double.BYTES);
+	}
+
 	public double sum()
 	{
 		double sum = 0;
@@ -268,10 +748,40 @@ public class Matrix
 	}
 
 
+	/**
+	 * Same shape & bitwise identical values, whether stored on or off the heap
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (!(o instanceof Matrix))
+			return false;
+
+		var other = (Matrix) o;
+		if (rows != other.rows || columns != other.columns)
+			return false;
+
+		for (int i = 0; i < length; i++)
+			if (Double.doubleToRawLongBits(at(i)) != Double.doubleToRawLongBits(other.at(i)))
+				return false;
+		return true;
+	}
+
 	@Override
 	public int hashCode()
 	{
-		return Arrays.hashCode(asBytes());
+		long fingerprint = getFingerprint();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
+	}
+
+	/**
+	 * 64 bit content hash of the shape & values, computed in one pass without copying
+	 */
+	public long getFingerprint()
+	{
+		return new Fingerprint().update(this).getValue();
 	}
 
 	public static void main(String[] args)
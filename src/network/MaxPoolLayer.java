@@ -0,0 +1,124 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps the largest value of every size x size block of each channel, images are stored channel by channel, row
+ * major. Rows & columns that don't fill a whole block are dropped
+ */
+public final class MaxPoolLayer extends Layer
+{
+	private final int channels, height, width, size;
+	private final int outputHeight, outputWidth;
+
+	// input index of every output's maximum, the only input its error flows back to
+	private final int[] maxima;
+	private final double[] output, inputError;
+
+	public MaxPoolLayer(int channels, int height, int width, int size)
+	{
+		super(channels * height * width, channels * Math.max(1, height / size) * Math.max(1, width / size));
+
+		if (channels < 1 || size < 1 || size > height || size > width)
+			throw new IllegalArgumentException("Invalid " + size + "x" + size + " pooling of " + channels + "x" + height + "x" + width + " inputs");
+
+		this.channels = channels;
+		this.height = height;
+		this.width = width;
+		this.size = size;
+		this.outputHeight = height / size;
+		this.outputWidth = width / size;
+
+		maxima = new int[outputSize];
+		output = new double[outputSize];
+		inputError = new double[inputSize];
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		int o = 0;
+		for (int channel = 0; channel < channels; channel++)
+		{
+			for (int y = 0; y < outputHeight; y++)
+			{
+				for (int x = 0; x < outputWidth; x++, o++)
+				{
+					int first = (channel * height + y * size) * width + x * size;
+					int max = first;
+					for (int dy = 0; dy < size; dy++)
+					{
+						int row = first + dy * width;
+						for (int dx = 0; dx < size; dx++)
+						{
+							if (input[row + dx] > input[max])
+								max = row + dx;
+						}
+					}
+
+					maxima[o] = max;
+					output[o] = input[max];
+				}
+			}
+		}
+
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		if (!propagate)
+			return null;
+
+		Arrays.fill(inputError, 0);
+		for (int o = 0; o < outputSize; o++)
+			inputError[maxima[o]] += outputError[o];
+		return inputError;
+	}
+
+	public int getOutputHeight()
+	{
+		return outputHeight;
+	}
+
+	public int getOutputWidth()
+	{
+		return outputWidth;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		return new MaxPoolLayer(channels, height, width, size);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.MAX_POOL;
+	}
+
+	@Override
+	int getByteCount()
+	{
+		return super.getByteCount() + 4 * Integer.BYTES;
+	}
+
+	@Override
+	void putBytes(ByteBuffer buffer)
+	{
+		super.putBytes(buffer);
+		buffer.putInt(channels);
+		buffer.putInt(height);
+		buffer.putInt(width);
+		buffer.putInt(size);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MaxPool(" + size + "x" + size + ")";
+	}
+}
@@ -0,0 +1,196 @@
+package network;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reports {@link TrainingMetrics} from its own thread, so the training loop never touches I/O
+ */
+public class MetricsReporter implements AutoCloseable
+{
+	/**
+	 * Frames of the console spinner
+	 */
+	public static final char[] SPINNER_CHARS = {'⡿', '⣟', '⣯', '⣷', '⣾', '⣽', '⣻', '⢿'};
+
+	private final TrainingMetrics metrics;
+	private final ScheduledExecutorService scheduler;
+
+	private PrintStream console;
+	private BufferedWriter csv;
+	private ObjectName jmxName;
+
+	private long lastNanos = System.nanoTime(), lastSamples, lastAllocated, lastGc;
+	private int ticks;
+
+	public MetricsReporter(TrainingMetrics metrics)
+	{
+		this.metrics = metrics;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			var thread = new Thread(runnable, "metrics-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Reports a single status line to the given stream, overwriting the previous one
+	 */
+	public MetricsReporter toConsole(PrintStream console)
+	{
+		this.console = console;
+		return this;
+	}
+
+	/**
+	 * Appends a row per report to the given CSV file
+	 */
+	public MetricsReporter toCsv(Path path) throws IOException
+	{
+		boolean header = Files.notExists(path) || Files.size(path) == 0;
+
+		csv = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+		if (header)
+		{
+			csv.write("time_ms,samples,samples_per_second,error_average,latency_p50_ns,latency_p99_ns,allocated_bytes_per_second,gc_ms");
+			csv.newLine();
+		}
+		return this;
+	}
+
+	/**
+	 * Exposes the metrics as an MBean under network:type=TrainingMetrics
+	 */
+	public MetricsReporter toJmx()
+	{
+		try
+		{
+			jmxName = new ObjectName("network:type=TrainingMetrics");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, jmxName);
+		} catch (InstanceAlreadyExistsException e)
+		{
+			// another run in this JVM already registered its metrics
+			jmxName = null;
+		} catch (JMException e)
+		{
+			throw new IllegalStateException("Could not register training metrics", e);
+		}
+		return this;
+	}
+
+	public MetricsReporter start(long period, TimeUnit unit)
+	{
+		scheduler.scheduleAtFixedRate(this::report, period, period, unit);
+		return this;
+	}
+
+	/**
+	 * Reports the metrics now
+	 */
+	public synchronized void report()
+	{
+		long now = System.nanoTime();
+		double seconds = (now - lastNanos) / 1e9;
+
+		long samples = metrics.getSamples();
+		long allocated = metrics.getAllocatedBytes();
+		long gc = metrics.getGcPauseMillis();
+
+		double samplesPerSecond = (samples - lastSamples) / seconds;
+		double allocatedPerSecond = allocated < 0 ? -1 : (allocated - lastAllocated) / seconds;
+		long gcMillis = gc - lastGc;
+		long p50 = metrics.getLatencyPercentile50();
+		long p99 = metrics.getLatencyPercentile99();
+
+		lastNanos = now;
+		lastSamples = samples;
+		lastAllocated = allocated;
+		lastGc = gc;
+
+		if (console != null)
+		{
+			long total = metrics.getTotal();
+			var line = new StringBuilder("\r").append(SPINNER_CHARS[ticks++ % SPINNER_CHARS.length]).append(" Training... ");
+
+			if (total > 0)
+			{
+				long remaining = samplesPerSecond > 0 ? (long) ((total - samples) / samplesPerSecond) : 0;
+				line.append((int) (100. * samples / total)).append("% ")
+					.append(samples).append(" out of ").append(total)
+					.append(String.format("  [%d hours %d minutes %d seconds] Remaining", remaining / 3600, remaining / 60 % 60, remaining % 60));
+			} else
+			{
+				line.append(samples).append(" samples");
+			}
+
+			line.append(String.format("  %.0f samples/s  p50 %dus p99 %dus  Average Error: %d  Alloc %d MB/s  GC %d ms    ",
+				samplesPerSecond,
+				p50 / 1000,
+				p99 / 1000,
+				(int) (100 * metrics.getErrorAverage()),
+				(long) (allocatedPerSecond / (1 << 20)),
+				gcMillis));
+
+			console.print(line);
+		}
+
+		if (csv != null)
+		{
+			try
+			{
+				csv.write(String.format("%d,%d,%.1f,%.6f,%d,%d,%.0f,%d",
+					System.currentTimeMillis(),
+					samples,
+					samplesPerSecond,
+					metrics.getErrorAverage(),
+					p50,
+					p99,
+					allocatedPerSecond,
+					gcMillis));
+				csv.newLine();
+				csv.flush();
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+				csv = null;
+			}
+		}
+	}
+
+	/**
+	 * Stops reporting after one last report
+	 */
+	@Override
+	public void close()
+	{
+		scheduler.shutdownNow();
+		report();
+
+		if (console != null)
+			console.println();
+
+		try
+		{
+			if (csv != null)
+				csv.close();
+			if (jmxName != null)
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+		} catch (IOException | JMException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package network;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events emitted by the network, record them with
+ * jcmd &lt;pid&gt; JFR.start settings=profile
+ * <p>
+ * When no recording is running the events are never committed and their allocation is removed by the JIT
+ */
+public final class NetworkEvents
+{
+	private NetworkEvents()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public static final String FORWARD = "forward";
+	public static final String BACKWARD = "backward";
+	// passing the error on to the previous layer, recorded apart so every phase is one event per layer & step
+	public static final String PROPAGATE = "propagate";
+	public static final String UPDATE = "update";
+
+	/**
+	 * Multiplications with fewer floating point operations than this are not recorded
+	 */
+	public static final long MULTIPLY_THRESHOLD = Long.getLong("network.jfr.multiplyThreshold", 50_000);
+
+	@Name("network.TrainStep")
+	@Label("Train Step")
+	@Category({"Neural Network", "Training"})
+	@Description("One call to DeepNeuralNetwork.train")
+	@StackTrace(false)
+	public static final class TrainStepEvent extends Event
+	{
+		@Label("Layers")
+		public int layers;
+
+		@Label("Learning Rate")
+		public double learningRate;
+	}
+
+	@Name("network.LayerPhase")
+	@Label("Layer Phase")
+	@Category({"Neural Network", "Training"})
+	@Description("Forward, backward, propagate or update phase of a single layer")
+	@StackTrace(false)
+	public static final class LayerPhaseEvent extends Event
+	{
+		@Label("Phase")
+		public String phase;
+
+		@Label("Layer")
+		public int layer;
+
+		@Label("Rows")
+		public int rows;
+
+		@Label("Columns")
+		public int columns;
+
+		@Label("FLOPs")
+		public long flops;
+	}
+
+	@Name("network.MatrixMultiply")
+	@Label("Matrix Multiply")
+	@Category({"Neural Network", "Matrix"})
+	@Description("Matrix multiplication above the network.jfr.multiplyThreshold FLOP count")
+	public static final class MatrixMultiplyEvent extends Event
+	{
+		@Label("Rows")
+		public int rows;
+
+		@Label("Inner")
+		public int inner;
+
+		@Label("Columns")
+		public int columns;
+
+		@Label("FLOPs")
+		public long flops;
+	}
+
+	@Name("network.ModelFile")
+	@Label("Model File")
+	@Category({"Neural Network", "I/O"})
+	@Description("Network read from or written to a file")
+	public static final class ModelFileEvent extends Event
+	{
+		@Label("Operation")
+		public String operation;
+
+		@Label("Path")
+		public String path;
+
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+	}
+}
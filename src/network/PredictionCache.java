@@ -0,0 +1,273 @@
+package network;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least recently used cache in front of {@link DeepNeuralNetwork#feed}. Inputs are quantized to a few
+ * levels per value first, so identical & near-identical inputs share one entry and the output of the first one
+ * is returned for all of them. Entries are dropped automatically when the network's parameters change.
+ * <p>
+ * Networks with few inputs, like the small digits, can instead precompute the output of every binary input
+ */
+public final class PredictionCache
+{
+	public static final int DEFAULT_CAPACITY = 10_000;
+	public static final int DEFAULT_LEVELS = 256;
+
+	/**
+	 * Largest input size a binary lookup table is computed for, 2^20 outputs
+	 */
+	public static final int MAX_TABLE_INPUTS = 20;
+
+	private final DeepNeuralNetwork network;
+	private final int levels;
+	private final LinkedHashMap<Key, double[]> entries;
+
+	private long version;
+	private double[][] table;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+	public PredictionCache(DeepNeuralNetwork network)
+	{
+		this(network, DEFAULT_CAPACITY, DEFAULT_LEVELS);
+	}
+
+	public PredictionCache(DeepNeuralNetwork network, int capacity, int levels)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		if (levels < 2 || levels > 256)
+			throw new IllegalArgumentException("Levels must be in [2, 256], got " + levels);
+
+		this.network = network;
+		this.levels = levels;
+		this.version = network.getParameterVersion();
+
+		entries = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest)
+			{
+				if (size() <= capacity)
+					return false;
+
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * The network's output for the input, or for an earlier input that quantized the same. The returned array
+	 * is shared, don't modify it
+	 */
+	public double[] feed(double... input)
+	{
+		if (input.length != network.getInputSize())
+			throw new IllegalArgumentException("Expected " + network.getInputSize() + " inputs, got " + input.length);
+
+		double[][] table;
+		synchronized (this)
+		{
+			invalidateIfChanged();
+			table = this.table;
+		}
+
+		if (table != null)
+		{
+			int index = binaryIndex(input);
+			if (index >= 0)
+			{
+				hits.incrementAndGet();
+				return table[index];
+			}
+		}
+
+		var key = new Key(quantize(input));
+
+		double[] output;
+		synchronized (this)
+		{
+			output = entries.get(key);
+		}
+
+		if (output != null)
+		{
+			hits.incrementAndGet();
+			return output;
+		}
+
+		misses.incrementAndGet();
+		output = network.feed(input);
+
+		synchronized (this)
+		{
+			// the parameters may have changed while feeding
+			if (version == network.getParameterVersion())
+				entries.put(key, output);
+		}
+
+		return output;
+	}
+
+	/**
+	 * Computes the output of every input of only zeros & ones, those are then answered by index without hashing
+	 */
+	public void precomputeBinary()
+	{
+		int inputs = network.getInputSize();
+		if (inputs > MAX_TABLE_INPUTS)
+			throw new UnsupportedOperationException("A table for " + inputs + " binary inputs would have 2^" + inputs + " entries");
+
+		long version = network.getParameterVersion();
+
+		double[][] table = new double[1 << inputs][];
+		double[] input = new double[inputs];
+		for (int index = 0; index < table.length; index++)
+		{
+			for (int i = 0; i < inputs; i++)
+				input[i] = (index >> i) & 1;
+			table[index] = network.feed(input);
+		}
+
+		synchronized (this)
+		{
+			if (version == network.getParameterVersion())
+			{
+				invalidateIfChanged();
+				this.table = table;
+			}
+		}
+	}
+
+	/**
+	 * Bit i of the index is input i, -1 if any input isn't exactly 0 or 1
+	 */
+	private static int binaryIndex(double[] input)
+	{
+		int index = 0;
+		for (int i = 0; i < input.length; i++)
+		{
+			if (input[i] == 1)
+				index |= 1 << i;
+			else if (input[i] != 0)
+				return -1;
+		}
+		return index;
+	}
+
+	private byte[] quantize(double[] input)
+	{
+		byte[] quantized = new byte[input.length];
+		for (int i = 0; i < input.length; i++)
+			quantized[i] = (byte) Math.max(0, Math.min(levels - 1, Math.round(input[i] * (levels - 1))));
+		return quantized;
+	}
+
+	private void invalidateIfChanged()
+	{
+		long current = network.getParameterVersion();
+		if (current != version)
+		{
+			entries.clear();
+			table = null;
+			version = current;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		table = null;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	public double getHitRate()
+	{
+		long hits = this.hits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : hits / (double) total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("PredictionCache[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%]",
+			size(), getHits(), getMisses(), getEvictions(), 100 * getHitRate());
+	}
+
+	/**
+	 * Quantized input with its hash computed once, equality still compares every value so collisions can't
+	 * return the wrong output
+	 */
+	private static final class Key
+	{
+		private final byte[] values;
+		private final int hash;
+
+		Key(byte[] values)
+		{
+			this.values = values;
+			this.hash = hash(values);
+		}
+
+		/**
+		 * FNV-1a over 8 values at a time with a final avalanche, inputs are mostly runs of zeros
+		 */
+		private static int hash(byte[] values)
+		{
+			long hash = 0xcbf29ce484222325L;
+
+			int i = 0;
+			for (; i + 8 <= values.length; i += 8)
+			{
+				long word = 0;
+				for (int j = 0; j < 8; j++)
+					word |= (values[i + j] & 0xFFL) << (8 * j);
+				hash = (hash ^ word) * 0x100000001b3L;
+			}
+			for (; i < values.length; i++)
+				hash = (hash ^ (values[i] & 0xFF)) * 0x100000001b3L;
+
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			return (int) hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).values, values);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+}
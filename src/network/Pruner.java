@@ -0,0 +1,129 @@
+package network;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Magnitude pruning, zeroes the smallest weights of a network so its layers can be multiplied in sparse form
+ */
+public final class Pruner
+{
+	private Pruner()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Zeroes every weight whose magnitude is below the threshold, biases are kept
+	 *
+	 * @return the indices into {@link DeepNeuralNetwork#getParameters()} of all zero weights, the pruning mask
+	 */
+	public static int[] pruneBelow(DeepNeuralNetwork network, double threshold)
+	{
+		double[] thresholds = new double[network.getLayerCount()];
+		Arrays.fill(thresholds, threshold);
+		return prune(network, thresholds);
+	}
+
+	/**
+	 * Zeroes the given fraction of smallest weights in every layer
+	 *
+	 * @return the indices into {@link DeepNeuralNetwork#getParameters()} of all zero weights, the pruning mask
+	 */
+	public static int[] pruneToSparsity(DeepNeuralNetwork network, double sparsity)
+	{
+		if (sparsity < 0 || sparsity >= 1)
+			throw new IllegalArgumentException("Sparsity must be in [0, 1), got " + sparsity);
+
+		double[] parameters = network.getParameters();
+		double[] thresholds = new double[network.getLayerCount()];
+
+		for (int i = 0; i < thresholds.length; i++)
+		{
+			Matrix weights = network.getWeights(i);
+
+			double[] magnitudes = new double[weights.length];
+			for (int k = 0; k < magnitudes.length; k++)
+				magnitudes[k] = Math.abs(parameters[weights.getOffset() + k]);
+			Arrays.sort(magnitudes);
+
+			int pruned = (int) (sparsity * magnitudes.length);
+			thresholds[i] = pruned == 0 ? 0 : Math.nextUp(magnitudes[pruned - 1]);
+		}
+
+		return prune(network, thresholds);
+	}
+
+	private static int[] prune(DeepNeuralNetwork network, double[] thresholds)
+	{
+		double[] parameters = network.getParameters();
+
+		int count = 0;
+		int[] mask = new int[parameters.length];
+
+		for (int i = 0; i < thresholds.length; i++)
+		{
+			Matrix weights = network.getWeights(i);
+			int start = weights.getOffset();
+
+			for (int k = start; k < start + weights.length; k++)
+			{
+				if (Math.abs(parameters[k]) < thresholds[i])
+					parameters[k] = 0;
+
+				if (parameters[k] == 0)
+					mask[count++] = k;
+			}
+		}
+
+		network.parametersChanged();
+		return Arrays.copyOf(mask, count);
+	}
+
+	/**
+	 * Zeroes the masked parameters again, after training moved them
+	 */
+	public static void applyMask(DeepNeuralNetwork network, int[] mask)
+	{
+		double[] parameters = network.getParameters();
+		for (int k : mask)
+			parameters[k] = 0;
+
+		network.parametersChanged();
+	}
+
+	/**
+	 * Trains the pruned network on the given samples while keeping the pruned weights at zero
+	 *
+	 * @param transform applied to every drawn input before it is trained on, e.g. to malform it like the network was
+	 *                  originally trained
+	 */
+	public static void fineTune(DeepNeuralNetwork network, int[] mask, double[][] inputs, int[] labels, long samples,
+		long seed, UnaryOperator<double[]> transform)
+	{
+		var sampler = new EpochSampler(labels, true, seed);
+		var expected = new double[network.getOutputSize()];
+
+		for (long step = 0; step < samples; step++)
+		{
+			int index = sampler.next();
+
+			expected[labels[index]] = 1;
+			network.train(transform.apply(inputs[index]), expected);
+			expected[labels[index]] = 0;
+
+			applyMask(network, mask);
+		}
+	}
+
+	/**
+	 * Fraction of zero weights in every layer
+	 */
+	public static double[] sparsity(DeepNeuralNetwork network)
+	{
+		double[] sparsity = new double[network.getLayerCount()];
+		for (int i = 0; i < sparsity.length; i++)
+			sparsity[i] = 1 - SparseMatrix.density(network.getWeights(i));
+		return sparsity;
+	}
+}
@@ -0,0 +1,138 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * Householder QR decomposition of a matrix with at least as many rows as columns, solves least squares problems
+ * without forming the normal equations, so the condition number isn't squared
+ */
+public final class QRDecomposition
+{
+	private final int m, n;
+
+	// the householder vectors below & on the diagonal, R above it with its diagonal kept in rDiagonal
+	private final double[] qr;
+	private final double[] rDiagonal;
+
+	public QRDecomposition(Matrix matrix)
+	{
+		if (matrix.rows < matrix.columns)
+			throw new UnsupportedOperationException("Invalid operation on " + matrix.rows + "x" + matrix.columns + " matrix, needs at least as many rows as columns");
+
+		m = matrix.rows;
+		n = matrix.columns;
+		qr = new double[m * n];
+		rDiagonal = new double[n];
+		decompose(matrix);
+	}
+
+	/**
+	 * Decomposes another matrix of the same size into this object's storage
+	 */
+	public void decompose(Matrix matrix)
+	{
+		if (matrix.rows != m || matrix.columns != n)
+			throw new UnsupportedOperationException("Invalid network.Matrix Size, Expected " + m + "x" + n + ", got " + matrix.rows + "x" + matrix.columns);
+
+		for (int i = 0; i < qr.length; i++)
+			qr[i] = matrix.at(i);
+
+		double[] dots = new double[n];
+		for (int k = 0; k < n; k++)
+		{
+			// norm of column k below the diagonal, hypot avoids over- & underflow
+			double norm = 0;
+			for (int i = k; i < m; i++)
+				norm = Math.hypot(norm, qr[i * n + k]);
+
+			if (norm != 0)
+			{
+				if (qr[k * n + k] < 0)
+					norm = -norm;
+
+				for (int i = k; i < m; i++)
+					qr[i * n + k] /= norm;
+				qr[k * n + k] += 1;
+
+				// apply the reflection to the remaining columns, row by row so the updates stay sequential
+				Arrays.fill(dots, 0);
+				for (int i = k; i < m; i++)
+				{
+					double v = qr[i * n + k];
+					for (int j = k + 1; j < n; j++)
+						dots[j] += v * qr[i * n + j];
+				}
+
+				double diagonal = qr[k * n + k];
+				for (int i = k; i < m; i++)
+				{
+					double v = qr[i * n + k];
+					for (int j = k + 1; j < n; j++)
+						qr[i * n + j] -= dots[j] / diagonal * v;
+				}
+			}
+
+			rDiagonal[k] = -norm;
+		}
+	}
+
+	public boolean isFullRank()
+	{
+		for (double value : rDiagonal)
+			if (value == 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * The X minimizing ||A * X - B|| for every column of B
+	 */
+	public Matrix solve(Matrix b)
+	{
+		if (b.rows != m)
+			throw new UnsupportedOperationException("Invalid operation between " + m + "x" + n + " and " + b.rows + "x" + b.columns + " matrices");
+		if (!isFullRank())
+			throw new UnsupportedOperationException("Matrix is rank deficient");
+
+		int columns = b.columns;
+		double[] y = new double[m * columns];
+		for (int i = 0; i < y.length; i++)
+			y[i] = b.at(i);
+
+		// Y = Q^T * B
+		double[] dots = new double[columns];
+		for (int k = 0; k < n; k++)
+		{
+			Arrays.fill(dots, 0);
+			for (int i = k; i < m; i++)
+			{
+				double v = qr[i * n + k];
+				for (int j = 0; j < columns; j++)
+					dots[j] += v * y[i * columns + j];
+			}
+
+			double diagonal = qr[k * n + k];
+			for (int i = k; i < m; i++)
+			{
+				double v = qr[i * n + k];
+				for (int j = 0; j < columns; j++)
+					y[i * columns + j] -= dots[j] / diagonal * v;
+			}
+		}
+
+		// R * X = Y
+		var x = new Matrix(n, columns);
+		for (int i = n - 1; i >= 0; i--)
+		{
+			for (int j = 0; j < columns; j++)
+			{
+				double sum = y[i * columns + j];
+				for (int k = i + 1; k < n; k++)
+					sum -= qr[i * n + k] * x.buffer[k * columns + j];
+				x.buffer[i * columns + j] = sum / rDiagonal[i];
+			}
+		}
+
+		return x;
+	}
+}
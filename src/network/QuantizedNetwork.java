@@ -0,0 +1,290 @@
+package network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Inference only copy of a network with int8 weights, activations are quantized to unsigned 8 bits with a zero
+ * point, so negative activations of tanh or identity layers keep their sign. Every layer is an integer
+ * multiply-accumulate followed by one float rescale per output
+ */
+public final class QuantizedNetwork
+{
+	private static final int MAGIC = 0x514E4E32; // "QNN2"
+	// no activation name & no zero points, always sigmoid
+	private static final int MAGIC_V1 = 0x514E4E31; // "QNN1"
+
+	private final int inputSize, outputSize;
+	private final int[] hiddenSizes;
+
+	// per layer: int8 weights row major, one scale per weight row, float biases
+	private final byte[][] weights;
+	private final float[][] rowScales;
+	private final float[][] biases;
+
+	// value of one step of the unsigned 8 bit input of every layer & the step representing 0
+	private final float[] activationScales;
+	private final int[] zeroPoints;
+
+	// sum of every weight row, to take the zero point out of the multiply-accumulate
+	private final int[][] rowSums;
+
+	private ActivationFunction activation = ActivationFunction.SIGMOID;
+
+	private QuantizedNetwork(int inputSize, int[] hiddenSizes, int outputSize)
+	{
+		this.inputSize = inputSize;
+		this.outputSize = outputSize;
+		this.hiddenSizes = hiddenSizes;
+
+		int layers = hiddenSizes.length + 1;
+		weights = new byte[layers][];
+		rowScales = new float[layers][];
+		biases = new float[layers][];
+		activationScales = new float[layers];
+		zeroPoints = new int[layers];
+		rowSums = new int[layers][];
+	}
+
+	/**
+	 * Quantizes the network, the range of every layer's input is calibrated on the given samples
+	 */
+	public static QuantizedNetwork quantize(DeepNeuralNetwork network, double[][] calibration)
+	{
+		if (network.isOffHeap())
+			network = network.copy();
+
+		var quantized = new QuantizedNetwork(network.getInputSize(), network.getHiddenSizes().clone(), network.getOutputSize());
+		quantized.activation = network.getActivationFunction();
+
+		int layers = network.getLayerCount();
+
+		// smallest & largest value seen at the input of every layer, the range always includes 0 so it stays exact
+		double[] minimums = new double[layers];
+		double[] maximums = new double[layers];
+		Function<Double, Double> function = network.getActivationFunction().getFunction();
+		for (double[] sample : calibration)
+		{
+			Matrix activation = Matrix.asColumn(sample);
+			for (int i = 0; i < layers; i++)
+			{
+				for (int r = 0; r < activation.rows; r++)
+				{
+					minimums[i] = Math.min(minimums[i], activation.get(r, 0));
+					maximums[i] = Math.max(maximums[i], activation.get(r, 0));
+				}
+
+				activation = network.getWeights(i).multiply(activation).add(network.getBiases(i)).map(function);
+			}
+		}
+
+		for (int i = 0; i < layers; i++)
+		{
+			Matrix weight = network.getWeights(i);
+			Matrix bias = network.getBiases(i);
+
+			double range = maximums[i] - minimums[i];
+			double step = range > 0 ? range / 255 : 1. / 255;
+			quantized.activationScales[i] = (float) step;
+			quantized.zeroPoints[i] = (int) Math.min(255, Math.round(-minimums[i] / step));
+			quantized.weights[i] = new byte[weight.length];
+			quantized.rowScales[i] = new float[weight.rows];
+			quantized.biases[i] = new float[weight.rows];
+
+			// symmetric per row scale, so the largest weight of every row maps to +-127
+			for (int r = 0; r < weight.rows; r++)
+			{
+				double max = 0;
+				for (int c = 0; c < weight.columns; c++)
+					max = Math.max(max, Math.abs(weight.get(r, c)));
+
+				double scale = max > 0 ? max / 127 : 1;
+				quantized.rowScales[i][r] = (float) scale;
+				quantized.biases[i][r] = (float) bias.get(r, 0);
+
+				for (int c = 0; c < weight.columns; c++)
+					quantized.weights[i][r * weight.columns + c] = (byte) Math.round(weight.get(r, c) / scale);
+			}
+
+			quantized.rowSums[i] = rowSums(quantized.weights[i], weight.rows);
+		}
+
+		return quantized;
+	}
+
+	public double[] feed(double... input)
+	{
+		if (input.length != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + input.length);
+
+		byte[] activation = quantizeActivation(input, activationScales[0], zeroPoints[0]);
+		Function<Double, Double> function = this.activation.getFunction();
+		double[] output = null;
+
+		for (int i = 0; i < weights.length; i++)
+		{
+			byte[] weight = weights[i];
+			float[] scales = rowScales[i];
+			int rows = scales.length;
+			int columns = activation.length;
+
+			output = new double[rows];
+			for (int r = 0; r < rows; r++)
+			{
+				// integer multiply-accumulate, 127 * 255 * columns cannot overflow an int for any realistic layer
+				int sum = 0;
+				int row = r * columns;
+				for (int c = 0; c < columns; c++)
+					sum += weight[row + c] * (activation[c] & 0xFF);
+
+				// sum of w * (q - zero point)
+				sum -= zeroPoints[i] * rowSums[i][r];
+
+				output[r] = function.apply(sum * (double) scales[r] * activationScales[i] + biases[i][r]);
+			}
+
+			if (i + 1 < weights.length)
+				activation = quantizeActivation(output, activationScales[i + 1], zeroPoints[i + 1]);
+		}
+
+		return output;
+	}
+
+	private static byte[] quantizeActivation(double[] values, float scale, int zeroPoint)
+	{
+		var result = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = (byte) Math.max(0, Math.min(255, Math.round(values[i] / scale) + zeroPoint));
+		return result;
+	}
+
+	private static int[] rowSums(byte[] weights, int rows)
+	{
+		int columns = weights.length / rows;
+		int[] sums = new int[rows];
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < columns; c++)
+				sums[r] += weights[r * columns + c];
+		return sums;
+	}
+
+	public ActivationFunction getActivationFunction()
+	{
+		return activation;
+	}
+
+	public int getInputSize()
+	{
+		return inputSize;
+	}
+
+	public int getOutputSize()
+	{
+		return outputSize;
+	}
+
+	public int[] getHiddenSizes()
+	{
+		return hiddenSizes;
+	}
+
+	public int getByteCount()
+	{
+		int bytes = 4 * Integer.BYTES + hiddenSizes.length * Integer.BYTES + Layer.nameBytes(activation);
+		for (int i = 0; i < weights.length; i++)
+			bytes += 2 * Integer.BYTES + Float.BYTES + weights[i].length + 2 * rowScales[i].length * Float.BYTES;
+		return bytes;
+	}
+
+	public void putBytes(ByteBuffer buffer)
+	{
+		buffer.putInt(MAGIC);
+		buffer.putInt(inputSize);
+		buffer.putInt(outputSize);
+		buffer.putInt(hiddenSizes.length);
+		for (int hiddenSize : hiddenSizes)
+			buffer.putInt(hiddenSize);
+		Layer.putName(buffer, activation);
+
+		for (int i = 0; i < weights.length; i++)
+		{
+			buffer.putInt(rowScales[i].length);
+			buffer.putFloat(activationScales[i]);
+			buffer.putInt(zeroPoints[i]);
+			for (float scale : rowScales[i])
+				buffer.putFloat(scale);
+			for (float bias : biases[i])
+				buffer.putFloat(bias);
+			buffer.put(weights[i]);
+		}
+	}
+
+	public static QuantizedNetwork fromBytes(ByteBuffer buffer)
+	{
+		int magic = buffer.remaining() < 4 * Integer.BYTES ? 0 : buffer.getInt();
+		if (magic != MAGIC && magic != MAGIC_V1)
+			throw new IllegalArgumentException("Malformed bytes for network.QuantizedNetwork");
+
+		int inputSize = buffer.getInt();
+		int outputSize = buffer.getInt();
+		int hiddenCount = buffer.getInt();
+		if (inputSize < 0 || hiddenCount < 0)
+			throw new IllegalArgumentException("Malformed bytes for network.QuantizedNetwork");
+
+		int[] hiddenSizes = new int[hiddenCount];
+		for (int i = 0; i < hiddenSizes.length; i++)
+			hiddenSizes[i] = buffer.getInt();
+
+		var network = new QuantizedNetwork(inputSize, hiddenSizes, outputSize);
+		if (magic == MAGIC)
+			network.activation = ActivationFunction.forName(Layer.getName(buffer));
+
+		int columns = inputSize;
+		for (int i = 0; i < network.weights.length; i++)
+		{
+			int rows = buffer.getInt();
+			if (rows < 0 || rows != (i < hiddenSizes.length ? hiddenSizes[i] : outputSize))
+				throw new IllegalArgumentException("Malformed bytes for network.QuantizedNetwork");
+
+			network.activationScales[i] = buffer.getFloat();
+			network.zeroPoints[i] = magic == MAGIC ? buffer.getInt() : 0;
+			if (network.zeroPoints[i] < 0 || network.zeroPoints[i] > 255)
+				throw new IllegalArgumentException("Malformed bytes for network.QuantizedNetwork");
+
+			network.rowScales[i] = new float[rows];
+			for (int r = 0; r < rows; r++)
+				network.rowScales[i][r] = buffer.getFloat();
+
+			network.biases[i] = new float[rows];
+			for (int r = 0; r < rows; r++)
+				network.biases[i][r] = buffer.getFloat();
+
+			network.weights[i] = new byte[rows * columns];
+			buffer.get(network.weights[i]);
+			network.rowSums[i] = rowSums(network.weights[i], rows);
+			columns = rows;
+		}
+
+		return network;
+	}
+
+	public byte[] getBytes()
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(getByteCount());
+		putBytes(buffer);
+		return buffer.array();
+	}
+
+	public void writeToFile(Path path) throws IOException
+	{
+		Files.write(path, getBytes());
+	}
+
+	public static QuantizedNetwork readFromFile(Path path) throws IOException
+	{
+		return fromBytes(ByteBuffer.wrap(Files.readAllBytes(path)));
+	}
+}
@@ -0,0 +1,71 @@
+package network;
+
+/**
+ * Turns the values into probabilities summing to 1, usually the last layer of a classifier
+ */
+public final class SoftmaxLayer extends Layer
+{
+	private final double[] output, inputError;
+
+	public SoftmaxLayer(int size)
+	{
+		super(size, size);
+
+		output = new double[size];
+		inputError = new double[size];
+	}
+
+	@Override
+	public double[] forward(double[] input, boolean training)
+	{
+		// shifted by the largest value so exp can't overflow
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < inputSize; i++)
+			max = Math.max(max, input[i]);
+
+		double sum = 0;
+		for (int i = 0; i < inputSize; i++)
+		{
+			output[i] = Math.exp(input[i] - max);
+			sum += output[i];
+		}
+		for (int i = 0; i < inputSize; i++)
+			output[i] /= sum;
+
+		return output;
+	}
+
+	@Override
+	public double[] backward(double[] outputError, boolean propagate)
+	{
+		if (!propagate)
+			return null;
+
+		// Jacobian times error without forming the Jacobian, y_i * (e_i - sum_j e_j * y_j)
+		double dot = 0;
+		for (int i = 0; i < outputSize; i++)
+			dot += outputError[i] * output[i];
+		for (int i = 0; i < inputSize; i++)
+			inputError[i] = output[i] * (outputError[i] - dot);
+
+		return inputError;
+	}
+
+	@Override
+	public Layer copy()
+	{
+		return new SoftmaxLayer(inputSize);
+	}
+
+	@Override
+	Type getType()
+	{
+		return Type.SOFTMAX;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Softmax";
+	}
+}
@@ -0,0 +1,126 @@
+package network;
+
+/**
+ * Read only matrix in compressed sparse row form, only the nonzero values & their columns are stored
+ */
+public final class SparseMatrix
+{
+	public final int rows, columns;
+
+	// values & columns of row i are stored in [rowPointers[i], rowPointers[i + 1])
+	private final int[] rowPointers;
+	private final int[] columnIndices;
+	private final double[] values;
+
+	private SparseMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices, double[] values)
+	{
+		this.rows = rows;
+		this.columns = columns;
+		this.rowPointers = rowPointers;
+		this.columnIndices = columnIndices;
+		this.values = values;
+	}
+
+	/**
+	 * Compresses the nonzero values of the dense matrix
+	 */
+	public static SparseMatrix fromDense(Matrix dense)
+	{
+		int nonZero = 0;
+		for (int i = 0; i < dense.length; i++)
+			if (dense.at(i) != 0)
+				nonZero++;
+
+		var rowPointers = new int[dense.rows + 1];
+		var columnIndices = new int[nonZero];
+		var values = new double[nonZero];
+
+		int p = 0;
+		for (int i = 0; i < dense.rows; i++)
+		{
+			rowPointers[i] = p;
+			for (int j = 0; j < dense.columns; j++)
+			{
+				double value = dense.at(i * dense.columns + j);
+				if (value != 0)
+				{
+					columnIndices[p] = j;
+					values[p++] = value;
+				}
+			}
+		}
+		rowPointers[dense.rows] = p;
+
+		return new SparseMatrix(dense.rows, dense.columns, rowPointers, columnIndices, values);
+	}
+
+	/**
+	 * Fraction of the matrix's elements that are nonzero
+	 */
+	public static double density(Matrix dense)
+	{
+		int nonZero = 0;
+		for (int i = 0; i < dense.length; i++)
+			if (dense.at(i) != 0)
+				nonZero++;
+
+		return nonZero / (double) dense.length;
+	}
+
+	public int getNonZeroCount()
+	{
+		return values.length;
+	}
+
+	public double getDensity()
+	{
+		return values.length / ((double) rows * columns);
+	}
+
+	/**
+	 * Multiplies this matrix with a dense one, returning a new dense matrix
+	 */
+	public Matrix multiply(Matrix other)
+	{
+		if (columns != other.rows)
+			throw new UnsupportedOperationException("Invalid operation between " + rows + "x" + columns + " and " + other.rows + "x" + other.columns + " matrices");
+
+		var result = new Matrix(rows, other.columns);
+
+		if (other.columns == 1)
+		{
+			// matrix-vector, the common inference case
+			for (int i = 0; i < rows; i++)
+			{
+				double sum = 0;
+				for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++)
+					sum += values[p] * other.at(columnIndices[p]);
+				result.buffer[i] = sum;
+			}
+			return result;
+		}
+
+		for (int i = 0; i < rows; i++)
+		{
+			int resultRow = i * other.columns;
+			for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++)
+			{
+				double value = values[p];
+				int otherRow = columnIndices[p] * other.columns;
+				for (int j = 0; j < other.columns; j++)
+					result.buffer[resultRow + j] += value * other.at(otherRow + j);
+			}
+		}
+
+		return result;
+	}
+
+	public Matrix toDense()
+	{
+		var dense = new Matrix(rows, columns);
+		for (int i = 0; i < rows; i++)
+			for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++)
+				dense.set(i, columnIndices[p], values[p]);
+		return dense;
+	}
+}
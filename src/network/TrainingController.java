@@ -0,0 +1,351 @@
+package network;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+/**
+ * Trains a network on part of a labelled data set while periodically evaluating the held out rest on a
+ * background thread, decaying the learning rate & stopping early once validation accuracy plateaus
+ */
+public class TrainingController
+{
+	/**
+	 * Called after every trained sample
+	 */
+	public interface StepListener
+	{
+		void onStep(long step, double error);
+	}
+
+	private final DeepNeuralNetwork network;
+	private final double[][] inputs;
+	private final int[] labels;
+
+	private final double[][] validationInputs;
+	private final int[] validationLabels;
+	private final EpochSampler sampler;
+	private final int[] trainingIndices;
+
+	private long maxSamples = Long.MAX_VALUE;
+	private int evaluationInterval = 10_000;
+	private int patience = 5;
+	private int decayPatience = 2;
+	private double decayFactor = 0.5;
+	private double minDelta = 0.001;
+	private Path checkpointPath;
+	private UnaryOperator<double[]> inputTransform = UnaryOperator.identity();
+	private StepListener stepListener;
+	private TrainingMetrics metrics;
+	private PrintStream log = System.out;
+
+	private DeepNeuralNetwork best;
+	private Evaluation bestEvaluation;
+	private long bestStep;
+	private int sinceImprovement;
+
+	/**
+	 * @param validationFraction fraction of the samples held out for validation, chosen per label so every
+	 *                           class keeps the same share in both splits
+	 */
+	public TrainingController(DeepNeuralNetwork network, double[][] inputs, int[] labels, double validationFraction, long seed)
+	{
+		if (inputs.length != labels.length)
+			throw new IllegalArgumentException("Got " + inputs.length + " inputs but " + labels.length + " labels");
+		if (validationFraction <= 0 || validationFraction >= 1)
+			throw new IllegalArgumentException("Validation fraction must be between 0 and 1, got " + validationFraction);
+
+		this.network = network;
+		this.inputs = inputs;
+		this.labels = labels;
+
+		// a stratified order makes every prefix a representative split
+		var split = new EpochSampler(labels, true, seed);
+		int validationSize = Math.max(1, (int) (inputs.length * validationFraction));
+		int[] order = new int[inputs.length];
+		split.nextBatch(order);
+
+		validationInputs = new double[validationSize][];
+		validationLabels = new int[validationSize];
+		for (int i = 0; i < validationSize; i++)
+		{
+			validationInputs[i] = inputs[order[i]];
+			validationLabels[i] = labels[order[i]];
+		}
+
+		trainingIndices = new int[inputs.length - validationSize];
+		int[] trainingLabels = new int[trainingIndices.length];
+		for (int i = 0; i < trainingIndices.length; i++)
+		{
+			trainingIndices[i] = order[validationSize + i];
+			trainingLabels[i] = labels[trainingIndices[i]];
+		}
+
+		sampler = new EpochSampler(trainingLabels, true, seed + 1);
+	}
+
+	/**
+	 * Trains until either maxSamples samples are trained or the validation accuracy has not improved for
+	 * patience evaluations, afterwards the network holds the best weights seen
+	 *
+	 * @return the validation result of the best weights
+	 */
+	public Evaluation train()
+	{
+		ExecutorService validator = Executors.newSingleThreadExecutor(runnable ->
+		{
+			var thread = new Thread(runnable, "validator");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		var evaluator = new Evaluator();
+		var expected = new double[network.getOutputSize()];
+
+		Future<Evaluation> pending = null;
+		DeepNeuralNetwork pendingSnapshot = null;
+		long pendingStep = 0;
+		boolean stopped = false;
+
+		best = null;
+		bestEvaluation = null;
+		sinceImprovement = 0;
+
+		if (metrics != null)
+		{
+			metrics.bindCurrentThread();
+			if (maxSamples != Long.MAX_VALUE)
+				metrics.setTotal(maxSamples);
+		}
+
+		try
+		{
+			for (long step = 1; step <= maxSamples; step++)
+			{
+				long start = System.nanoTime();
+				int index = trainingIndices[sampler.next()];
+
+				expected[labels[index]] = 1;
+				double error = network.train(inputTransform.apply(inputs[index]), expected).sum();
+				expected[labels[index]] = 0;
+
+				sampler.record(error);
+				if (metrics != null)
+					metrics.record(System.nanoTime() - start, error);
+				if (stepListener != null)
+					stepListener.onStep(step, error);
+
+				if (step % evaluationInterval != 0)
+					continue;
+
+				// collect the previous validation run without ever waiting on it
+				if (pending != null && pending.isDone())
+				{
+					Evaluation evaluation = pending.get();
+					pending = null;
+
+					if (!consider(pendingSnapshot, evaluation, pendingStep, true))
+					{
+						log.printf("\rNo improvement for %d evaluations, stopping at sample %d%n", sinceImprovement, step);
+						stopped = true;
+						break;
+					}
+				}
+
+				if (pending == null)
+				{
+					DeepNeuralNetwork snapshot = network.copy();
+					pendingSnapshot = snapshot;
+					pendingStep = step;
+					pending = validator.submit(() -> evaluator.evaluate(snapshot, validationInputs, validationLabels));
+				}
+			}
+
+			if (pending != null)
+			{
+				consider(pendingSnapshot, pending.get(), pendingStep, false);
+			}
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e)
+		{
+			throw new IllegalStateException("Validation failed", e.getCause());
+		} finally
+		{
+			validator.shutdownNow();
+		}
+
+		// the weights trained after the last validation run may still be the best, unless training stopped for
+		// lack of improvement
+		if (!stopped)
+		{
+			DeepNeuralNetwork last = network.copy();
+			consider(last, evaluator.evaluate(last, validationInputs, validationLabels), sampler.getSamples(), false);
+		}
+
+		network.copyParametersFrom(best);
+		return bestEvaluation;
+	}
+
+	/**
+	 * Keeps the snapshot if it is the best so far, otherwise applies the decay & patience rules
+	 *
+	 * @param training false once training is over, the snapshot is then only kept if it is the best
+	 * @return false if training should stop
+	 */
+	private boolean consider(DeepNeuralNetwork snapshot, Evaluation evaluation, long step, boolean training)
+	{
+		boolean keepGoing = true;
+
+		if (bestEvaluation == null || evaluation.getAccuracy() > bestEvaluation.getAccuracy() + minDelta)
+		{
+			best = snapshot;
+			bestEvaluation = evaluation;
+			bestStep = step;
+			sinceImprovement = 0;
+			saveCheckpoint();
+		} else if (training)
+		{
+			sinceImprovement++;
+
+			if (sinceImprovement % decayPatience == 0)
+			{
+				network.setLearningRate(network.getLearningRate() * decayFactor);
+				log.printf("\rLearning rate decayed to %g%n", network.getLearningRate());
+			}
+
+			keepGoing = sinceImprovement < patience;
+		}
+
+		log.printf("\r[%d] Epoch %d  Validation accuracy: %.2f%%  Error: %d%%  Best: %.2f%% (sample %d)%n",
+			step,
+			sampler.getEpoch(),
+			100 * evaluation.getAccuracy(),
+			(int) (100 * evaluation.getMeanLoss()),
+			100 * bestEvaluation.getAccuracy(),
+			bestStep);
+
+		return keepGoing;
+	}
+
+	private void saveCheckpoint()
+	{
+		if (checkpointPath == null)
+			return;
+
+		try
+		{
+			best.writeToFile(checkpointPath);
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public DeepNeuralNetwork getBest()
+	{
+		return best;
+	}
+
+	public Evaluation getBestEvaluation()
+	{
+		return bestEvaluation;
+	}
+
+	public EpochSampler getSampler()
+	{
+		return sampler;
+	}
+
+	public int getValidationSize()
+	{
+		return validationLabels.length;
+	}
+
+	/**
+	 * Upper bound on the amount of trained samples
+	 */
+	public void setMaxSamples(long maxSamples)
+	{
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Amount of trained samples between validation runs
+	 */
+	public void setEvaluationInterval(int evaluationInterval)
+	{
+		if (evaluationInterval < 1)
+			throw new IllegalArgumentException("Invalid evaluation interval " + evaluationInterval);
+		this.evaluationInterval = evaluationInterval;
+	}
+
+	/**
+	 * Amount of validation runs without improvement before stopping
+	 */
+	public void setPatience(int patience)
+	{
+		if (patience < 1)
+			throw new IllegalArgumentException("Invalid patience " + patience);
+		this.patience = patience;
+	}
+
+	/**
+	 * Multiplies the learning rate by factor every patience validation runs without improvement
+	 */
+	public void setLearningRateDecay(int patience, double factor)
+	{
+		if (patience < 1)
+			throw new IllegalArgumentException("Invalid decay patience " + patience);
+		this.decayPatience = patience;
+		this.decayFactor = factor;
+	}
+
+	/**
+	 * Smallest increase in validation accuracy that counts as an improvement
+	 */
+	public void setMinDelta(double minDelta)
+	{
+		this.minDelta = minDelta;
+	}
+
+	/**
+	 * File the best network is written to whenever it improves, null to disable
+	 */
+	public void setCheckpointPath(Path checkpointPath)
+	{
+		this.checkpointPath = checkpointPath;
+	}
+
+	/**
+	 * Applied to every training input before it is trained on, e.g. to malform it
+	 */
+	public void setInputTransform(UnaryOperator<double[]> inputTransform)
+	{
+		this.inputTransform = inputTransform;
+	}
+
+	public void setStepListener(StepListener stepListener)
+	{
+		this.stepListener = stepListener;
+	}
+
+	/**
+	 * Metrics every trained sample is recorded into, null to disable
+	 */
+	public void setMetrics(TrainingMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	public void setLog(PrintStream log)
+	{
+		this.log = log;
+	}
+}
@@ -0,0 +1,167 @@
+package network;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters & a step latency histogram for a training run, written by the training thread without allocating
+ * and read by a {@link MetricsReporter} from another thread
+ */
+public class TrainingMetrics implements TrainingMetricsMBean
+{
+	// latency buckets: 8 linear sub buckets per power of two nanoseconds
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private static final double EMA_WEIGHT = 0.001;
+
+	private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+	private final long startNanos = System.nanoTime();
+
+	private volatile long samples;
+	private volatile double errorAverage = Double.NaN;
+	private volatile long total;
+	private volatile long trainingThreadId = -1;
+
+	/**
+	 * Records one trained sample, called from the training thread only
+	 */
+	public void record(long nanos, double error)
+	{
+		latency.incrementAndGet(bucket(nanos));
+
+		double average = errorAverage;
+		errorAverage = Double.isNaN(average) ? error : average + EMA_WEIGHT * (error - average);
+
+		samples = samples + 1;
+	}
+
+	/**
+	 * Marks the current thread as the one doing the training, its allocations get reported
+	 */
+	public void bindCurrentThread()
+	{
+		trainingThreadId = Thread.currentThread().getId();
+	}
+
+	/**
+	 * Amount of samples the run is expected to train, for progress reporting
+	 */
+	public void setTotal(long total)
+	{
+		this.total = total;
+	}
+
+	public long getTotal()
+	{
+		return total;
+	}
+
+	@Override
+	public long getSamples()
+	{
+		return samples;
+	}
+
+	@Override
+	public double getSamplesPerSecond()
+	{
+		return samples / ((System.nanoTime() - startNanos) / 1e9);
+	}
+
+	/**
+	 * Exponential moving average of the training error
+	 */
+	@Override
+	public double getErrorAverage()
+	{
+		return errorAverage;
+	}
+
+	@Override
+	public long getLatencyPercentile50()
+	{
+		return getLatencyPercentile(0.5);
+	}
+
+	@Override
+	public long getLatencyPercentile99()
+	{
+		return getLatencyPercentile(0.99);
+	}
+
+	/**
+	 * Upper bound in nanoseconds of the bucket holding the given percentile of step latencies
+	 */
+	public long getLatencyPercentile(double percentile)
+	{
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = latency.get(i);
+			count += counts[i];
+		}
+
+		if (count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+				return upperBound(i);
+		}
+
+		return upperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * Bytes allocated by the training thread so far, -1 if the JVM cannot tell
+	 */
+	@Override
+	public long getAllocatedBytes()
+	{
+		long id = trainingThreadId;
+		if (id == -1 || !(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads))
+			return -1;
+
+		return threads.getThreadAllocatedBytes(id);
+	}
+
+	/**
+	 * Total time spent in garbage collection by the whole JVM
+	 */
+	@Override
+	public long getGcPauseMillis()
+	{
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+
+	private static int bucket(long nanos)
+	{
+		if (nanos < SUB_BUCKETS)
+			return (int) Math.max(0, nanos);
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return Math.min(BUCKETS - 1, (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub);
+	}
+
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket + 1;
+
+		int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		return (1L << magnitude) + ((long) (sub + 1) << (magnitude - SUB_BUCKET_BITS));
+	}
+}
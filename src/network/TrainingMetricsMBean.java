@@ -0,0 +1,21 @@
+package network;
+
+/**
+ * JMX view of {@link TrainingMetrics}
+ */
+public interface TrainingMetricsMBean
+{
+	long getSamples();
+
+	double getSamplesPerSecond();
+
+	double getErrorAverage();
+
+	long getLatencyPercentile50();
+
+	long getLatencyPercentile99();
+
+	long getAllocatedBytes();
+
+	long getGcPauseMillis();
+}
@@ -0,0 +1,129 @@
+package network;
+
+import java.util.Random;
+
+/**
+ * Chooses the starting weights of a layer from its fan in & fan out. Xavier/Glorot keeps the variance of tanh
+ * layers' sums near 1, He does the same for relu layers, which zero half of their inputs. Sigmoid is a quarter as
+ * steep as tanh around 0, so it needs Xavier with a gain of 4. Both start with zero biases
+ */
+public final class WeightInitializer
+{
+	private enum Kind
+	{
+		UNIFORM, XAVIER_UNIFORM, XAVIER_NORMAL, HE_UNIFORM, HE_NORMAL
+	}
+
+	/**
+	 * Weights & biases uniform in [-1, 1] regardless of the layer size, the original initialization
+	 */
+	public static final WeightInitializer UNIFORM = new WeightInitializer(Kind.UNIFORM);
+
+	/**
+	 * Uniform in +-sqrt(6 / (fanIn + fanOut))
+	 */
+	public static final WeightInitializer XAVIER_UNIFORM = new WeightInitializer(Kind.XAVIER_UNIFORM);
+
+	/**
+	 * Normal with a deviation of sqrt(2 / (fanIn + fanOut))
+	 */
+	public static final WeightInitializer XAVIER_NORMAL = new WeightInitializer(Kind.XAVIER_NORMAL);
+
+	/**
+	 * Uniform in +-sqrt(6 / fanIn)
+	 */
+	public static final WeightInitializer HE_UNIFORM = new WeightInitializer(Kind.HE_UNIFORM);
+
+	/**
+	 * Normal with a deviation of sqrt(2 / fanIn)
+	 */
+	public static final WeightInitializer HE_NORMAL = new WeightInitializer(Kind.HE_NORMAL);
+
+	/**
+	 * Xavier scaled for sigmoid layers
+	 */
+	public static final double SIGMOID_GAIN = 4;
+
+	private final Kind kind;
+	private final double gain;
+
+	private WeightInitializer(Kind kind)
+	{
+		this(kind, 1);
+	}
+
+	private WeightInitializer(Kind kind, double gain)
+	{
+		if (!(gain > 0))
+			throw new IllegalArgumentException("Invalid gain " + gain);
+
+		this.kind = kind;
+		this.gain = gain;
+	}
+
+	/**
+	 * Same distribution with every weight multiplied by gain
+	 */
+	public WeightInitializer withGain(double gain)
+	{
+		return new WeightInitializer(kind, gain);
+	}
+
+	/**
+	 * The initializer suited to the activation, He for relu, Xavier with a gain of 4 for sigmoid & Xavier for
+	 * everything else
+	 */
+	public static WeightInitializer forActivation(ActivationFunction activation)
+	{
+		if (activation == ActivationFunction.RELU)
+			return HE_NORMAL;
+		if (activation == ActivationFunction.SIGMOID)
+			return XAVIER_NORMAL.withGain(SIGMOID_GAIN);
+		return XAVIER_NORMAL;
+	}
+
+	/**
+	 * Overwrites the weights & biases of one layer
+	 *
+	 * @param fanIn  inputs contributing to each output
+	 * @param fanOut outputs each input contributes to
+	 */
+	public void initialize(Matrix weights, Matrix biases, int fanIn, int fanOut, Random random)
+	{
+		if (fanIn < 1 || fanOut < 1)
+			throw new IllegalArgumentException("Invalid fan in " + fanIn + " or fan out " + fanOut);
+
+		switch (kind)
+		{
+			case UNIFORM -> fillUniform(weights, gain, random);
+			case XAVIER_UNIFORM -> fillUniform(weights, gain * Math.sqrt(6.0 / (fanIn + fanOut)), random);
+			case XAVIER_NORMAL -> fillNormal(weights, gain * Math.sqrt(2.0 / (fanIn + fanOut)), random);
+			case HE_UNIFORM -> fillUniform(weights, gain * Math.sqrt(6.0 / fanIn), random);
+			case HE_NORMAL -> fillNormal(weights, gain * Math.sqrt(2.0 / fanIn), random);
+		}
+
+		if (kind == Kind.UNIFORM)
+			fillUniform(biases, 1, random);
+		else
+			for (int i = 0; i < biases.length; i++)
+				biases.put(i, 0);
+	}
+
+	private static void fillUniform(Matrix matrix, double limit, Random random)
+	{
+		for (int i = 0; i < matrix.length; i++)
+			matrix.put(i, (2 * random.nextDouble() - 1) * limit);
+	}
+
+	private static void fillNormal(Matrix matrix, double deviation, Random random)
+	{
+		for (int i = 0; i < matrix.length; i++)
+			matrix.put(i, random.nextGaussian() * deviation);
+	}
+
+	@Override
+	public String toString()
+	{
+		return gain == 1 ? kind.toString() : kind + " x" + gain;
+	}
+}
@@ -0,0 +1,347 @@
+package serving;
+
+import network.DeepNeuralNetwork;
+import network.Matrix;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Headless batch scoring, streams a sample file of any size through the parallel batched forward pass & writes
+ * the prediction and probabilities of every sample to a CSV file.
+ * <p>
+ * Samples are either CSV rows of pixel values in [0, 255], optionally preceded by a label column and a header
+ * line, or a binary file of raw unsigned bytes, one byte per input (files ending in .bin)
+ */
+public final class BatchScorer
+{
+	public static final int BATCH_SIZE = 256;
+	public static final int CHUNK_SIZE = 64 * BATCH_SIZE;
+
+	private final DeepNeuralNetwork network;
+	private final ForkJoinPool pool;
+
+	private long samples, labelled, correct;
+
+	public BatchScorer(DeepNeuralNetwork network)
+	{
+		this(network, ForkJoinPool.commonPool());
+	}
+
+	public BatchScorer(DeepNeuralNetwork network, ForkJoinPool pool)
+	{
+		this.network = network;
+		this.pool = pool;
+	}
+
+	/**
+	 * Scores every sample of the input file, the output is written chunk by chunk so memory use stays constant
+	 *
+	 * @return the amount of scored samples
+	 */
+	public long score(Path input, Path output) throws IOException
+	{
+		int inputSize = network.getInputSize();
+		int outputSize = network.getOutputSize();
+
+		double[][] inputs = new double[CHUNK_SIZE][inputSize];
+		int[] labels = new int[CHUNK_SIZE];
+		double[][] outputs = new double[CHUNK_SIZE][outputSize];
+
+		try (SampleReader reader = input.toString().endsWith(".bin") ? new BinaryReader(input, inputSize) : new CsvReader(input, inputSize);
+			 Writer writer = Files.newBufferedWriter(output, StandardCharsets.US_ASCII))
+		{
+			var header = new StringBuilder("index,label,prediction");
+			for (int i = 0; i < outputSize; i++)
+				header.append(",p").append(i);
+			writer.write(header.append('\n').toString());
+
+			var line = new StringBuilder();
+
+			int count;
+			while ((count = reader.read(inputs, labels)) > 0)
+			{
+				scoreChunk(inputs, outputs, count);
+
+				for (int s = 0; s < count; s++)
+				{
+					int prediction = DeepNeuralNetwork.largestIndex(outputs[s]);
+					if (labels[s] >= 0)
+					{
+						labelled++;
+						if (labels[s] == prediction)
+							correct++;
+					}
+
+					line.setLength(0);
+					line.append(samples + s).append(',');
+					if (labels[s] >= 0)
+						line.append(labels[s]);
+					line.append(',').append(prediction);
+					for (double probability : outputs[s])
+						appendFixed(line.append(','), probability);
+					writer.append(line.append('\n'));
+				}
+
+				samples += count;
+			}
+		}
+
+		return samples;
+	}
+
+	private void scoreChunk(double[][] inputs, double[][] outputs, int count)
+	{
+		int batches = (count + BATCH_SIZE - 1) / BATCH_SIZE;
+
+		pool.submit(() -> IntStream.range(0, batches).parallel().forEach(b ->
+		{
+			int offset = b * BATCH_SIZE;
+			int size = Math.min(BATCH_SIZE, count - offset);
+
+			Matrix result = network.feedBatch(Matrix.fromColumns(inputs, offset, size));
+			for (int s = 0; s < size; s++)
+				result.getColumn(s, outputs[offset + s]);
+		})).join();
+	}
+
+	/**
+	 * Six decimals without going through String.format, which would dominate the scoring time
+	 */
+	private static void appendFixed(StringBuilder builder, double value)
+	{
+		long scaled = Math.round(value * 1_000_000);
+		if (scaled < 0)
+		{
+			builder.append('-');
+			scaled = -scaled;
+		}
+
+		builder.append(scaled / 1_000_000).append('.');
+
+		String fraction = Long.toString(scaled % 1_000_000);
+		for (int i = fraction.length(); i < 6; i++)
+			builder.append('0');
+		builder.append(fraction);
+	}
+
+	public long getSamples()
+	{
+		return samples;
+	}
+
+	/**
+	 * Accuracy over the samples that had a label, NaN if none had
+	 */
+	public double getAccuracy()
+	{
+		return labelled == 0 ? Double.NaN : correct / (double) labelled;
+	}
+
+	private interface SampleReader extends Closeable
+	{
+		/**
+		 * Reads up to inputs.length samples, labels are -1 for unlabelled samples
+		 *
+		 * @return the amount of samples read, 0 at the end of the file
+		 */
+		int read(double[][] inputs, int[] labels) throws IOException;
+	}
+
+	private static final class CsvReader implements SampleReader
+	{
+		private final BufferedReader reader;
+		private final int inputSize;
+		private boolean first = true;
+
+		CsvReader(Path path, int inputSize) throws IOException
+		{
+			this.reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII);
+			this.inputSize = inputSize;
+		}
+
+		@Override
+		public int read(double[][] inputs, int[] labels) throws IOException
+		{
+			int count = 0;
+			String line;
+
+			while (count < inputs.length && (line = reader.readLine()) != null)
+			{
+				if (line.isBlank())
+					continue;
+
+				// skip a header
+				if (first)
+				{
+					first = false;
+					char c = line.charAt(0);
+					if (c != '-' && c != '.' && !Character.isDigit(c))
+						continue;
+				}
+
+				parse(line, inputs[count], labels, count);
+				count++;
+			}
+
+			return count;
+		}
+
+		private void parse(String line, double[] input, int[] labels, int index)
+		{
+			int columns = 1;
+			for (int i = 0; i < line.length(); i++)
+				if (line.charAt(i) == ',')
+					columns++;
+
+			boolean hasLabel;
+			if (columns == inputSize + 1)
+				hasLabel = true;
+			else if (columns == inputSize)
+				hasLabel = false;
+			else
+				throw new IllegalArgumentException("Expected " + inputSize + " values with an optional label, got " + columns + " columns");
+
+			labels[index] = -1;
+
+			int start = 0;
+			for (int column = 0; column < columns; column++)
+			{
+				int end = line.indexOf(',', start);
+				if (end < 0)
+					end = line.length();
+
+				double value = parseValue(line, start, end);
+				if (hasLabel && column == 0)
+					labels[index] = (int) value;
+				else
+					input[hasLabel ? column - 1 : column] = value / 255;
+
+				start = end + 1;
+			}
+		}
+
+		/**
+		 * Pixel values are nearly always small integers, only anything else goes through Double.parseDouble
+		 */
+		private static double parseValue(String line, int start, int end)
+		{
+			while (start < end && line.charAt(start) == ' ')
+				start++;
+			while (end > start && line.charAt(end - 1) == ' ')
+				end--;
+
+			if (start == end)
+				throw new IllegalArgumentException("Empty value in '" + line + "'");
+
+			int value = 0;
+			for (int i = start; i < end; i++)
+			{
+				char c = line.charAt(i);
+				if (c < '0' || c > '9' || i - start > 8)
+					return Double.parseDouble(line.substring(start, end));
+
+				value = value * 10 + (c - '0');
+			}
+			return value;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			reader.close();
+		}
+	}
+
+	private static final class BinaryReader implements SampleReader
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final int inputSize;
+
+		BinaryReader(Path path, int inputSize) throws IOException
+		{
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			this.buffer = ByteBuffer.allocateDirect(CHUNK_SIZE * inputSize);
+			this.inputSize = inputSize;
+
+			if (channel.size() % inputSize != 0)
+				throw new IllegalArgumentException(path + " is not a whole number of " + inputSize + " byte samples");
+		}
+
+		@Override
+		public int read(double[][] inputs, int[] labels) throws IOException
+		{
+			// the samples left according to the file size, the file must not end before them
+			long remaining = (channel.size() - channel.position()) / inputSize;
+			buffer.clear();
+			buffer.limit((int) Math.min(Math.min(inputs.length, CHUNK_SIZE), remaining) * inputSize);
+			readFully(channel, buffer);
+			buffer.flip();
+
+			int count = buffer.remaining() / inputSize;
+			for (int s = 0; s < count; s++)
+			{
+				double[] input = inputs[s];
+				for (int i = 0; i < inputSize; i++)
+					input[i] = (buffer.get() & 0xFF) / 255.;
+			}
+
+			Arrays.fill(labels, 0, count, -1);
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+
+		/**
+		 * Reads until the buffer is full
+		 *
+		 * @throws EOFException if the channel ends first
+		 */
+		private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException
+		{
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new EOFException("Expected " + buffer.remaining() + " more bytes");
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2 || args.length > 3)
+		{
+			System.err.println("Usage: BatchScorer <samples.csv|samples.bin> <predictions.csv> [model.dat]");
+			System.exit(1);
+		}
+
+		Path model = args.length == 3 ? Paths.get(args[2]) : Paths.get("networks/complex_digits.dat");
+		DeepNeuralNetwork network = DeepNeuralNetwork.readFromFile(model);
+
+		var scorer = new BatchScorer(network);
+
+		long start = System.nanoTime();
+		long samples = scorer.score(Paths.get(args[0]), Paths.get(args[1]));
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("Scored %d samples in %.2fs (%.0f samples/s), written to %s%n", samples, seconds, samples / seconds, args[1]);
+		if (!Double.isNaN(scorer.getAccuracy()))
+			System.out.printf("Accuracy: %.2f%%%n", 100 * scorer.getAccuracy());
+	}
+}
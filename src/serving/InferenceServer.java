@@ -0,0 +1,347 @@
+package serving;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import network.DeepNeuralNetwork;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a network over HTTP.
+ * <p>
+ * POST /predict with either a JSON array of inputs in [0, 1] (optionally as {"input": [...]}) or, as
+ * application/octet-stream, one unsigned byte per input. The answer is
+ * {"prediction": 3, "version": 1, "probabilities": [...]}. GET /health describes the served model.
+ * <p>
+ * The admin endpoint POST /rollback serves the previous version again. It has no authentication, so it is only
+ * served on its own admin address, by default the same loopback address as everything else.
+ * <p>
+ * New versions of the model file are picked up by a {@link ModelRegistry} without interrupting requests.
+ * <p>
+ * Launch with -Dsun.net.httpserver.nodelay=true, small responses otherwise wait for delayed acks, ~40ms per
+ * request. main sets it unless given, the property affects every HttpServer of the JVM so the class doesn't
+ */
+public final class InferenceServer implements AutoCloseable
+{
+	public static final int DEFAULT_PORT = 8080;
+	public static final int MAX_BODY_BYTES = 1 << 20;
+
+	private final ModelRegistry registry;
+	private final HttpServer server;
+
+	// serves the admin endpoints, the same as server if they share their address, null without admin endpoints
+	private final HttpServer admin;
+	private final ExecutorService executor;
+
+	/**
+	 * Serves everything on the loopback interface only
+	 */
+	public InferenceServer(ModelRegistry registry, int port) throws IOException
+	{
+		this(registry, loopback(port), loopback(port));
+	}
+
+	static InetSocketAddress loopback(int port)
+	{
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * @param adminAddress where the admin endpoints are served, the same as address to serve them together, null
+	 *                     to serve none. Keep it on loopback or behind a firewall, the admin endpoints trust anyone
+	 */
+	public InferenceServer(ModelRegistry registry, InetSocketAddress address, InetSocketAddress adminAddress) throws IOException
+	{
+		this.registry = registry;
+
+		executor = newRequestExecutor();
+
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/predict", this::predict);
+		server.createContext("/health", this::health);
+
+		if (adminAddress == null)
+			admin = null;
+		else if (adminAddress.equals(address))
+			admin = server;
+		else
+		{
+			admin = HttpServer.create(adminAddress, 0);
+			admin.setExecutor(executor);
+		}
+
+		if (admin != null)
+			admin.createContext("/rollback", this::rollback);
+	}
+
+	/**
+	 * A virtual thread per request when the runtime has them, a cached pool of platform threads otherwise
+	 */
+	static ExecutorService newRequestExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(r ->
+			{
+				var thread = new Thread(r, "inference");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	public void start()
+	{
+		server.start();
+		if (admin != null && admin != server)
+			admin.start();
+	}
+
+	private void predict(HttpExchange exchange) throws IOException
+	{
+		try (exchange)
+		{
+			if (!"POST".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 405, "{\"error\": \"POST only\"}");
+				return;
+			}
+
+			byte[] body = readBody(exchange.getRequestBody());
+			if (body == null)
+			{
+				respond(exchange, 413, "{\"error\": \"Body larger than " + MAX_BODY_BYTES + " bytes\"}");
+				return;
+			}
+
+			// the request finishes on this version even if a new one is published meanwhile
+			InferenceSnapshot model = registry.current();
+
+			double[] input;
+			try
+			{
+				String type = exchange.getRequestHeaders().getFirst("Content-Type");
+				input = type != null && type.startsWith("application/octet-stream")
+					? fromBytes(body, model.getInputSize())
+					: fromJson(new String(body, StandardCharsets.UTF_8), model.getInputSize());
+			} catch (IllegalArgumentException e)
+			{
+				respond(exchange, 400, error(e.getMessage()));
+				return;
+			}
+
+			double[] probabilities = model.predict(input);
+
+			var json = new StringBuilder(256);
+			json.append("{\"prediction\": ").append(DeepNeuralNetwork.largestIndex(probabilities));
+			json.append(", \"version\": ").append(model.getVersion());
+			json.append(", \"probabilities\": [");
+			for (int i = 0; i < probabilities.length; i++)
+			{
+				if (i > 0)
+					json.append(", ");
+				json.append(probabilities[i]);
+			}
+			json.append("]}");
+
+			respond(exchange, 200, json.toString());
+		}
+	}
+
+	private void health(HttpExchange exchange) throws IOException
+	{
+		try (exchange)
+		{
+			respond(exchange, 200, describe(registry.current()));
+		}
+	}
+
+	private void rollback(HttpExchange exchange) throws IOException
+	{
+		try (exchange)
+		{
+			if (!"POST".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, 405, "{\"error\": \"POST only\"}");
+				return;
+			}
+
+			try
+			{
+				respond(exchange, 200, describe(registry.rollback()));
+			} catch (IllegalStateException e)
+			{
+				respond(exchange, 409, error(e.getMessage()));
+			}
+		}
+	}
+
+	private String describe(InferenceSnapshot model)
+	{
+		var versions = new StringBuilder();
+		for (InferenceSnapshot snapshot : registry.getVersions())
+			versions.append(versions.length() == 0 ? "" : ", ").append(snapshot.getVersion());
+
+		return "{\"version\": " + model.getVersion()
+			+ ", \"fingerprint\": \"" + Long.toHexString(model.getFingerprint()) + "\""
+			+ ", \"versions\": [" + versions + "]"
+			+ ", \"inputs\": " + model.getInputSize()
+			+ ", \"outputs\": " + model.getOutputSize() + "}";
+	}
+
+	private static String error(String message)
+	{
+		return "{\"error\": " + jsonString(message) + "}";
+	}
+
+	/**
+	 * The text as a quoted JSON string, with quotes, backslashes & control characters escaped
+	 */
+	static String jsonString(String text)
+	{
+		var json = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		return json.append('"').toString();
+	}
+
+	private static byte[] readBody(InputStream stream) throws IOException
+	{
+		byte[] body = stream.readNBytes(MAX_BODY_BYTES + 1);
+		return body.length > MAX_BODY_BYTES ? null : body;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException
+	{
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+
+	static double[] fromBytes(byte[] body, int inputSize)
+	{
+		if (body.length != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " bytes, got " + body.length);
+
+		double[] input = new double[inputSize];
+		for (int i = 0; i < inputSize; i++)
+			input[i] = (body[i] & 0xFF) / 255.;
+		return input;
+	}
+
+	/**
+	 * The numbers of the first JSON array in the body, enough for [...] and {"input": [...]}
+	 */
+	static double[] fromJson(String body, int inputSize)
+	{
+		int start = body.indexOf('[');
+		int end = body.indexOf(']', start + 1);
+		if (start < 0 || end < 0)
+			throw new IllegalArgumentException("Expected a JSON array of " + inputSize + " numbers");
+
+		double[] input = new double[inputSize];
+		int count = 0;
+
+		int from = start + 1;
+		while (from < end)
+		{
+			int to = body.indexOf(',', from);
+			if (to < 0 || to > end)
+				to = end;
+
+			String value = body.substring(from, to).trim();
+			if (!value.isEmpty())
+			{
+				if (count == inputSize)
+					throw new IllegalArgumentException("Expected " + inputSize + " inputs, got more");
+
+				try
+				{
+					input[count++] = Double.parseDouble(value);
+				} catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Not a number: " + value);
+				}
+			}
+			from = to + 1;
+		}
+
+		if (count != inputSize)
+			throw new IllegalArgumentException("Expected " + inputSize + " inputs, got " + count);
+
+		return input;
+	}
+
+	public ModelRegistry getRegistry()
+	{
+		return registry;
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * The port of the admin endpoints, -1 without them
+	 */
+	public int getAdminPort()
+	{
+		return admin == null ? -1 : admin.getAddress().getPort();
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+		if (admin != null && admin != server)
+			admin.stop(0);
+		executor.shutdownNow();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		Path model = args.length > 0 ? Paths.get(args[0]) : Paths.get("networks/complex_digits.dat");
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		// binding to another host keeps the admin endpoints on loopback, on the next port
+		InetSocketAddress address = args.length > 2 ? new InetSocketAddress(args[2], port) : loopback(port);
+		InetSocketAddress adminAddress = address.getAddress().isLoopbackAddress() ? address : loopback(port + 1);
+
+		var registry = new ModelRegistry(model);
+		registry.setListener(snapshot -> System.out.println("Serving version " + snapshot.getVersion() + " of " + model));
+
+		var server = new InferenceServer(registry, address, adminAddress);
+		server.start();
+
+		System.out.println("Serving " + model + " on http://" + address.getHostString() + ":" + server.getPort() + "/predict, admin on http://"
+			+ adminAddress.getHostString() + ":" + server.getAdminPort() + "/rollback");
+	}
+}
@@ -0,0 +1,151 @@
+package serving;
+
+import network.DeepNeuralNetwork;
+import network.Matrix;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * Immutable copy of a network's parameters for concurrent inference. Requests borrow their activation buffers
+ * from a pool instead of allocating matrices, so serving does not churn the heap
+ */
+public final class InferenceSnapshot
+{
+	private final long version;
+	private final long fingerprint;
+	private final int[] sizes;
+
+	// row major weights & the biases of every layer
+	private final double[][] weights;
+	private final double[][] biases;
+
+	private final Function<Double, Double> function;
+
+	private final ConcurrentLinkedQueue<Scratch> pool = new ConcurrentLinkedQueue<>();
+
+	public InferenceSnapshot(DeepNeuralNetwork network, long version)
+	{
+		this.version = version;
+		this.fingerprint = network.getFingerprint();
+		this.function = network.getActivationFunction().getFunction();
+
+		int layers = network.getLayerCount();
+		sizes = new int[layers + 1];
+		sizes[0] = network.getInputSize();
+
+		weights = new double[layers][];
+		biases = new double[layers][];
+
+		for (int i = 0; i < layers; i++)
+		{
+			Matrix weight = network.getWeights(i);
+			Matrix bias = network.getBiases(i);
+
+			sizes[i + 1] = weight.rows;
+			weights[i] = new double[weight.length];
+			biases[i] = new double[bias.rows];
+
+			for (int r = 0; r < weight.rows; r++)
+			{
+				for (int c = 0; c < weight.columns; c++)
+					weights[i][r * weight.columns + c] = weight.get(r, c);
+				biases[i][r] = bias.get(r, 0);
+			}
+		}
+	}
+
+	/**
+	 * Class probabilities of the input, safe to call from any amount of threads
+	 */
+	public double[] predict(double[] input)
+	{
+		if (input.length != sizes[0])
+			throw new IllegalArgumentException("Expected " + sizes[0] + " inputs, got " + input.length);
+
+		Scratch scratch = pool.poll();
+		if (scratch == null)
+			scratch = new Scratch(sizes);
+
+		try
+		{
+			// the first layer only reads the weight columns of nonzero inputs
+			int count = 0;
+			for (int k = 0; k < input.length; k++)
+				if (input[k] != 0)
+					scratch.nonZero[count++] = k;
+
+			double[] previous = input;
+			for (int i = 0; i < weights.length; i++)
+			{
+				double[] weight = weights[i];
+				double[] bias = biases[i];
+				double[] activation = scratch.activations[i];
+				int columns = sizes[i];
+
+				for (int r = 0; r < activation.length; r++)
+				{
+					int row = r * columns;
+					double sum = 0;
+					if (i == 0)
+					{
+						for (int n = 0; n < count; n++)
+						{
+							int k = scratch.nonZero[n];
+							sum += weight[row + k] * previous[k];
+						}
+					} else
+					{
+						for (int k = 0; k < columns; k++)
+							sum += weight[row + k] * previous[k];
+					}
+					activation[r] = function.apply(sum + bias[r]);
+				}
+
+				previous = activation;
+			}
+
+			return previous.clone();
+		} finally
+		{
+			pool.offer(scratch);
+		}
+	}
+
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Content hash of the network the snapshot was copied from
+	 */
+	public long getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	public int getInputSize()
+	{
+		return sizes[0];
+	}
+
+	public int getOutputSize()
+	{
+		return sizes[sizes.length - 1];
+	}
+
+	private static final class Scratch
+	{
+		final int[] nonZero;
+		final double[][] activations;
+
+		Scratch(int[] sizes)
+		{
+			nonZero = new int[sizes[0]];
+			activations = new double[sizes.length - 1][];
+			for (int i = 1; i < sizes.length; i++)
+				activations[i - 1] = new double[sizes[i]];
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package serving;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends random digit-like images to an inference server from a fixed amount of concurrent clients and reports the
+ * latency percentiles & throughput
+ */
+public final class LoadGenerator
+{
+	public static final int WARMUP_REQUESTS = 2000;
+
+	private final URI uri;
+	private final int inputSize;
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	public LoadGenerator(URI uri, int inputSize)
+	{
+		this.uri = uri;
+		this.inputSize = inputSize;
+	}
+
+	/**
+	 * Sends the given amount of requests spread over the clients
+	 *
+	 * @return the latency of every request in nanoseconds, sorted
+	 */
+	public long[] run(int requests, int clients) throws InterruptedException
+	{
+		long[] latencies = new long[requests];
+		var next = new AtomicInteger();
+		var failures = new AtomicInteger();
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		try
+		{
+			Future<?>[] futures = new Future<?>[clients];
+			for (int c = 0; c < clients; c++)
+			{
+				long seed = c;
+				futures[c] = pool.submit(() ->
+				{
+					var random = new Random(seed);
+					int i;
+					while ((i = next.getAndIncrement()) < requests)
+					{
+						HttpRequest request = request(random);
+
+						long start = System.nanoTime();
+						try
+						{
+							HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+							if (response.statusCode() != 200)
+								failures.incrementAndGet();
+						} catch (IOException e)
+						{
+							failures.incrementAndGet();
+						} catch (InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+							return;
+						}
+						latencies[i] = System.nanoTime() - start;
+					}
+				});
+			}
+
+			for (Future<?> future : futures)
+				future.get();
+		} catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		} finally
+		{
+			pool.shutdownNow();
+		}
+
+		if (failures.get() > 0)
+			System.err.println(failures.get() + " of " + requests + " requests failed");
+
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	/**
+	 * A blob of bright pixels at a random position, roughly as sparse as a drawn digit
+	 */
+	private HttpRequest request(Random random)
+	{
+		byte[] body = new byte[inputSize];
+		int side = (int) Math.sqrt(inputSize);
+		int cx = side / 4 + random.nextInt(side / 2 + 1);
+		int cy = side / 4 + random.nextInt(side / 2 + 1);
+		for (int y = 0; y < side; y++)
+			for (int x = 0; x < side; x++)
+				if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < side * side / 16)
+					body[y * side + x] = (byte) (128 + random.nextInt(128));
+
+		return HttpRequest.newBuilder(uri)
+			.header("Content-Type", "application/octet-stream")
+			.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+			.build();
+	}
+
+	public static long percentile(long[] sorted, double percentile)
+	{
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		URI uri = URI.create(args.length > 0 ? args[0] : "http://localhost:" + InferenceServer.DEFAULT_PORT + "/predict");
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int inputSize = args.length > 3 ? Integer.parseInt(args[3]) : 784;
+
+		var generator = new LoadGenerator(uri, inputSize);
+		generator.run(WARMUP_REQUESTS, clients);
+
+		long start = System.nanoTime();
+		long[] latencies = generator.run(requests, clients);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d requests from %d clients in %.2fs: %.0f QPS, p50 %.2fms, p99 %.2fms, max %.2fms%n",
+			requests,
+			clients,
+			seconds,
+			requests / seconds,
+			percentile(latencies, 50) / 1e6,
+			percentile(latencies, 99) / 1e6,
+			latencies[latencies.length - 1] / 1e6);
+	}
+}
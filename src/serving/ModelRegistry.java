@@ -0,0 +1,261 @@
+package serving;
+
+import network.DeepNeuralNetwork;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the served version of a model file up to date. The file's directory is watched & every new version is
+ * loaded and validated on a background thread, then published with a single reference swap, so readers never
+ * block and requests that already hold a snapshot finish on it. The last versions stay in memory for rollback
+ */
+public final class ModelRegistry implements AutoCloseable
+{
+	public static final int DEFAULT_HISTORY = 3;
+
+	/**
+	 * Writers emit several events per file, a new version is only loaded once the file stayed unchanged this long
+	 */
+	public static final long SETTLE_MILLIS = 200;
+
+	private final Path file;
+	private final int history;
+	private final WatchService watcher;
+	private final Thread thread;
+
+	// copy-on-write, every publication replaces the list & the current snapshot together
+	private volatile State state;
+	private long nextVersion = 1;
+
+	private volatile Consumer<InferenceSnapshot> listener = snapshot -> {};
+
+	private static final class State
+	{
+		final InferenceSnapshot current;
+		final List<InferenceSnapshot> versions;
+
+		State(InferenceSnapshot current, List<InferenceSnapshot> versions)
+		{
+			this.current = current;
+			this.versions = versions;
+		}
+	}
+
+	public ModelRegistry(Path file) throws IOException
+	{
+		this(file, DEFAULT_HISTORY);
+	}
+
+	public ModelRegistry(Path file, int history) throws IOException
+	{
+		if (history < 1)
+			throw new IllegalArgumentException("Must keep at least one version, got " + history);
+
+		this.file = file.toAbsolutePath();
+		this.history = history;
+
+		InferenceSnapshot first = load();
+		state = new State(first, List.of(first));
+
+		watcher = FileSystems.getDefault().newWatchService();
+		this.file.getParent().register(watcher,
+			StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_MODIFY);
+
+		thread = new Thread(this::watch, "model-registry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The snapshot to serve, hold on to it for the duration of a request
+	 */
+	public InferenceSnapshot current()
+	{
+		return state.current;
+	}
+
+	public double[] feed(double... input)
+	{
+		return state.current.predict(input);
+	}
+
+	/**
+	 * The versions in memory, oldest first
+	 */
+	public List<InferenceSnapshot> getVersions()
+	{
+		return state.versions;
+	}
+
+	/**
+	 * Called after every publication, including rollbacks
+	 */
+	public void setListener(Consumer<InferenceSnapshot> listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Serves the version before the current one again
+	 *
+	 * @return the now current snapshot
+	 */
+	public synchronized InferenceSnapshot rollback()
+	{
+		State state = this.state;
+		int index = state.versions.indexOf(state.current);
+		if (index <= 0)
+			throw new IllegalStateException("No older version of " + file + " in memory");
+
+		return rollback(state.versions.get(index - 1).getVersion());
+	}
+
+	/**
+	 * Serves the given version again, it stays in the history and a newer file still replaces it
+	 */
+	public synchronized InferenceSnapshot rollback(long version)
+	{
+		State state = this.state;
+		for (InferenceSnapshot snapshot : state.versions)
+		{
+			if (snapshot.getVersion() == version)
+			{
+				this.state = new State(snapshot, state.versions);
+				listener.accept(snapshot);
+				return snapshot;
+			}
+		}
+
+		throw new IllegalArgumentException("Version " + version + " of " + file + " is not in memory");
+	}
+
+	private synchronized void publish(InferenceSnapshot snapshot)
+	{
+		var versions = new ArrayList<>(state.versions);
+		versions.add(snapshot);
+		while (versions.size() > history)
+			versions.remove(0);
+
+		state = new State(snapshot, Collections.unmodifiableList(versions));
+		listener.accept(snapshot);
+	}
+
+	/**
+	 * Reads & validates the file, throws on a truncated or otherwise unusable network
+	 */
+	private InferenceSnapshot load() throws IOException
+	{
+		DeepNeuralNetwork network = DeepNeuralNetwork.readFromFile(file);
+
+		if (state != null)
+		{
+			InferenceSnapshot current = state.current;
+			if (network.getInputSize() != current.getInputSize() || network.getOutputSize() != current.getOutputSize())
+				throw new IllegalArgumentException("Expected " + current.getInputSize() + " inputs & " + current.getOutputSize()
+					+ " outputs, got " + network.getInputSize() + " & " + network.getOutputSize());
+		}
+
+		for (double parameter : network.getParameters())
+			if (!Double.isFinite(parameter))
+				throw new IllegalArgumentException("Non finite parameter");
+
+		synchronized (this)
+		{
+			return new InferenceSnapshot(network, nextVersion++);
+		}
+	}
+
+	private void watch()
+	{
+		FileTime loaded = modifiedTime();
+
+		try
+		{
+			while (true)
+			{
+				WatchKey key = watcher.take();
+
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+						changed = true;
+				}
+				key.reset();
+
+				if (!changed)
+					continue;
+
+				// wait for the writer to finish, swallowing the rest of its events
+				FileTime time;
+				do
+				{
+					time = modifiedTime();
+					TimeUnit.MILLISECONDS.sleep(SETTLE_MILLIS);
+					WatchKey more = watcher.poll();
+					if (more != null)
+					{
+						more.pollEvents();
+						more.reset();
+					}
+				} while (!time.equals(modifiedTime()));
+
+				if (time.equals(loaded))
+					continue;
+
+				try
+				{
+					// rewritten with identical parameters, nothing to publish
+					if (DeepNeuralNetwork.readFingerprint(file) == state.current.getFingerprint())
+					{
+						loaded = time;
+						continue;
+					}
+
+					publish(load());
+					loaded = time;
+				} catch (IOException | RuntimeException e)
+				{
+					// keep serving the current version, a later write triggers the next attempt
+					System.err.println("Rejected new version of " + file + ": " + e);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// closed
+		}
+	}
+
+	private FileTime modifiedTime()
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e)
+		{
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		thread.interrupt();
+		watcher.close();
+	}
+}
@@ -3,34 +3,93 @@ package training;
 import drawers.HandwrittenDrawer;
 import network.ActivationFunction;
 import network.DeepNeuralNetwork;
+import network.Distiller;
+import network.EnsemblePredictor;
+import network.EpochSampler;
+import network.Evaluation;
+import network.Evaluator;
+import network.LayeredNetwork;
+import network.LearningRateSchedule;
 import network.Malformer;
+import network.MetricsReporter;
+import network.TrainingController;
+import network.TrainingMetrics;
+import network.WeightInitializer;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 
 public final class HandwrittenDigits
 {
 	public static final int TRAINING_SET_SIZE_COEFF = 1_000_000;
-	private final static double LEARNING_RATE = 0.00042069;
+	// peak of the one-cycle schedule, which starts at a tenth of it & ends at a hundredth
+	private final static double LEARNING_RATE = 0.0042069;
+	private final static double VALIDATION_FRACTION = 0.1;
+	private final static int EVALUATION_INTERVAL = 20_000;
+	private final static int PATIENCE = 8;
+
+	// training length & rate of every network when comparing architectures or initializers
+	private final static int COMPARE_SAMPLES = 200_000;
+	private final static double COMPARE_LEARNING_RATE = 0.05;
+
+	// accuracy the initializers race to, checked every interval samples
+	private final static double TARGET_ACCURACY = 0.9;
+	private final static int TARGET_INTERVAL = 5_000;
+	private final static long INITIALIZER_SEED = 42;
+
+	// members loaded from the directory of FILE when no files are given, & the network distilled from them
+	private final static String ENSEMBLE_GLOB = "complex_digits*.dat";
+	private final static int[] DISTILLED_HIDDEN_SIZES = {16};
+	public final static Path DISTILLED_FILE = Paths.get("networks/distilled_digits.dat");
+
+	// softening of the teacher's outputs & the share of the labels in the student's targets
+	private final static double DISTILL_TEMPERATURE = 4;
+	private final static double DISTILL_HARD_TARGET_WEIGHT = 0.5;
+	private final static int BENCHMARK_ROUNDS = 20;
 
 	public final static int IMAGE_RES = 28;
 	public final static int OUTPUT_SIZE = 10;
 	public final static Path FILE = Paths.get("networks/complex_digits.dat");
-	public final static char[] LOADING_CHARS = {'⡿', '⣟', '⣯', '⣷', '⣾', '⣽', '⣻', '⢿'};
+	public final static Path METRICS_FILE = Paths.get("networks/complex_digits_metrics.csv");
+	public final static char[] LOADING_CHARS = MetricsReporter.SPINNER_CHARS;
 
 	private static DeepNeuralNetwork network;
 
 	public static void main(String[] args) throws URISyntaxException, IOException
 	{
+		if (args.length > 0 && args[0].equals("compare"))
+		{
+			compareArchitectures();
+			return;
+		}
+		if (args.length > 0 && args[0].equals("initializers"))
+		{
+			compareInitializers();
+			return;
+		}
+		if (args.length > 0 && args[0].equals("ensemble"))
+		{
+			evaluateEnsemble(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("distill"))
+		{
+			distill(args.length > 1 ? Paths.get(args[1]) : FILE);
+			return;
+		}
+
 		var kb = new Scanner(System.in);
 
 
@@ -47,7 +106,7 @@ public final class HandwrittenDigits
 			System.out.println("Output size: " + network.getOutputSize());
 			System.out.println("Hidden layers: " + network.getHiddenSizes().length);
 			System.out.println("Hidden layer sizes: " + Arrays.toString(network.getHiddenSizes()));
-			System.out.println("Hash: " + network.hashCode());
+			System.out.println("Fingerprint: " + Long.toHexString(network.getFingerprint()));
 
 			// ask if the user wants to train the network
 
@@ -66,7 +125,9 @@ public final class HandwrittenDigits
 				16
 			}, OUTPUT_SIZE);
 			network.setActivationFunction(ActivationFunction.SIGMOID);
+			network.initialize(WeightInitializer.forActivation(ActivationFunction.SIGMOID), System.nanoTime());
 			network.setLearningRate(LEARNING_RATE);
+			network.setLearningRateSchedule(LearningRateSchedule.oneCycle(TRAINING_SET_SIZE_COEFF, 0.3, 10, 100));
 
 			HandwrittenDigits.train();
 		}
@@ -86,38 +147,16 @@ public final class HandwrittenDigits
 
 		if (testData != null)
 		{
+			double[][] inputs = new double[testData.size()][];
+			int[] labels = new int[testData.size()];
 
-			// get the accuracy for each digit
-			int[] accuracy = new int[OUTPUT_SIZE];
-			int[] count = new int[OUTPUT_SIZE];
-			int total = 0, correct = 0;
-
-			for (Data data : testData)
-			{
-				count[data.expected]++;
-
-				double[] output = network.feed(data.getMalformed());
-
-
-				if (DeepNeuralNetwork.largestIndex(output) == data.expected)
-				{
-					accuracy[data.expected]++;
-					correct++;
-				}
-				total++;
-			}
-
-			// print the accuracy for each digit
-			for (int i = 0; i < network.getOutputSize(); i++)
+			for (int i = 0; i < inputs.length; i++)
 			{
-				System.out.print("Accuracy for " + i + ": " + (int) (100 * (float) accuracy[i] / count[i]) + "%");
-				// fraction
-				System.out.println(" (" + accuracy[i] + "/" + count[i] + ")");
+				inputs[i] = testData.get(i).getMalformed();
+				labels[i] = testData.get(i).expected;
 			}
 
-			// print the total accuracy
-			System.out.println("Total accuracy: " + (int) (100 * (float) correct / total) + "%");
-
+			new Evaluator().evaluate(network, inputs, labels).print(System.out);
 		}
 	}
 
@@ -133,57 +172,289 @@ public final class HandwrittenDigits
 
 		int total = TRAINING_SET_SIZE_COEFF;
 
-		double error = 0f;
-		System.out.println("Training for " + total + " samples");
+		double[][] inputs = new double[trainingData.size()][];
+		int[] labels = new int[trainingData.size()];
+		for (int i = 0; i < labels.length; i++)
+		{
+			inputs[i] = trainingData.get(i).input;
+			labels[i] = trainingData.get(i).expected;
+		}
 
-		long averageTime = 0;
-		double errorSum = 0f;
-		for (int i = 0; i < total || errorSum / i > (12.42069 / 100.); i++)
+		// hold out part of the data to decide when to stop, keeping the best network in FILE
+		var controller = new TrainingController(network, inputs, labels, VALIDATION_FRACTION, System.nanoTime());
+		controller.setMaxSamples(total);
+		controller.setEvaluationInterval(EVALUATION_INTERVAL);
+		controller.setPatience(PATIENCE);
+		controller.setCheckpointPath(FILE);
+		controller.setInputTransform(input ->
 		{
-			// get random data
-			Data data = trainingData.get((int) (Math.random() * trainingData.size()));
+			double[] clone = input.clone();
+			Malformer.malform(clone);
+			return clone;
+		});
 
-			// print training message
+		System.out.println("Training for up to " + total + " samples, validating on " + controller.getValidationSize());
 
-			double[] expectedOutput = new double[OUTPUT_SIZE];
-			expectedOutput[data.expected] = 1;
+		var metrics = new TrainingMetrics();
+		controller.setMetrics(metrics);
 
-			long start = System.currentTimeMillis();
-			error = network.train(data.getMalformed(), expectedOutput).sum();
-			errorSum += error;
-			averageTime += System.currentTimeMillis() - start;
+		Evaluation best;
+		try (var reporter = new MetricsReporter(metrics).toConsole(System.out).toCsv(METRICS_FILE).toJmx())
+		{
+			reporter.start(1, TimeUnit.SECONDS);
+			best = controller.train();
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
 
-			System.out.print("\r" + LOADING_CHARS[i % LOADING_CHARS.length]);
-			System.out.print(" Training... " + (int) ((double) i / total * 100) + "%" + " ");
-			System.out.printf("%d out of %d",
-				i,
-				total + Math.max((i - total), 0));
-			System.out.print("  Error: " + (int) (error * 100));
+		System.out.printf("\r[%s] Training finished, best validation accuracy: %d%%\n",
+			DateFormat.getTimeInstance().format(new Date()),
+			(int) (100 * best.getAccuracy()));
+	}
 
-			long expectedMillis = (long) ((averageTime / (double) i) * (total - i));
+	/**
+	 * Trains the dense network & a convolutional one on the same samples and reports accuracy & speed of both
+	 */
+	public static void compareArchitectures() throws FileNotFoundException
+	{
+		var split = new Split(loadData("training/handwritten.csv"));
+
+		var mlp = new LayeredNetwork.Builder(IMAGE_RES * IMAGE_RES)
+			.initializer(WeightInitializer.forActivation(ActivationFunction.SIGMOID))
+			.dense(40).activation(ActivationFunction.SIGMOID)
+			.dense(32).activation(ActivationFunction.SIGMOID)
+			.dense(24).activation(ActivationFunction.SIGMOID)
+			.dense(16).activation(ActivationFunction.SIGMOID)
+			.dense(OUTPUT_SIZE).activation(ActivationFunction.SIGMOID)
+			.build();
+
+		var cnn = new LayeredNetwork.Builder(1, IMAGE_RES, IMAGE_RES)
+			.initializer(WeightInitializer.forActivation(ActivationFunction.RELU))
+			.convolution(8, 5).activation(ActivationFunction.RELU)
+			.maxPool(2)
+			.initializer(WeightInitializer.forActivation(ActivationFunction.SIGMOID))
+			.dense(32).activation(ActivationFunction.SIGMOID)
+			.dense(OUTPUT_SIZE).activation(ActivationFunction.SIGMOID)
+			.build();
+
+		compare("MLP", mlp, split.inputs, split.labels, split.testInputs, split.testLabels);
+		compare("CNN", cnn, split.inputs, split.labels, split.testInputs, split.testLabels);
+	}
 
-			long expectedSeconds = (expectedMillis / 1000) % 60;
-			long expectedMinutes = (expectedMillis / 1000 / 60) % 60;
-			long expectedHours = (expectedMillis / 1000 / 60 / 60);
+	/**
+	 * Trains the dense network from every initializer's start & reports how long each takes to reach the target
+	 * accuracy on held out data, evaluation time excluded
+	 */
+	public static void compareInitializers() throws FileNotFoundException
+	{
+		var split = new Split(loadData("training/handwritten.csv"));
+
+		WeightInitializer[] initializers = {
+			WeightInitializer.UNIFORM,
+			WeightInitializer.XAVIER_UNIFORM,
+			WeightInitializer.XAVIER_NORMAL,
+			WeightInitializer.XAVIER_UNIFORM.withGain(WeightInitializer.SIGMOID_GAIN),
+			WeightInitializer.XAVIER_NORMAL.withGain(WeightInitializer.SIGMOID_GAIN),
+			WeightInitializer.HE_UNIFORM,
+			WeightInitializer.HE_NORMAL
+		};
+
+		for (WeightInitializer initializer : initializers)
+		{
+			var network = new DeepNeuralNetwork(IMAGE_RES * IMAGE_RES, new int[]{40, 32, 24, 16}, OUTPUT_SIZE);
+			network.setActivationFunction(ActivationFunction.SIGMOID);
+			network.setLearningRate(COMPARE_LEARNING_RATE);
+			network.initialize(initializer, INITIALIZER_SEED);
 
-			System.out.printf("\t[%d hours %d minutes %d seconds] Remaining    ", expectedHours, expectedMinutes, expectedSeconds);
-			System.out.print("Average Error: " + (int) (100 * errorSum / i) + " ");
+			var sampler = new EpochSampler(split.labels, true, 1);
+			double[] expected = new double[OUTPUT_SIZE];
+			long trainingNanos = 0;
+			int samples = 0;
+			double accuracy = 0;
 
-			if (i % 100_000 == 0)
+			while (samples < COMPARE_SAMPLES && accuracy < TARGET_ACCURACY)
 			{
-				try
+				long start = System.nanoTime();
+				for (int i = 0; i < TARGET_INTERVAL; i++)
 				{
-					network.writeToFile(FILE);
-					System.out.printf("\r[%s] Wrote to file\n",
-						DateFormat.getTimeInstance().format(new Date()));
-				} catch (IOException e)
-				{
-					e.printStackTrace();
+					int index = sampler.next();
+					double[] input = split.inputs[index].clone();
+					Malformer.malform(input);
+					Arrays.fill(expected, 0);
+					expected[split.labels[index]] = 1;
+					network.train(input, expected);
 				}
+				trainingNanos += System.nanoTime() - start;
+				samples += TARGET_INTERVAL;
+
+				accuracy = new Evaluator().evaluate(network, split.testInputs, split.testLabels).getAccuracy();
 			}
+
+			if (accuracy >= TARGET_ACCURACY)
+				System.out.printf("%s: %d%% after %d samples, %.1f s\n", initializer, (int) (100 * TARGET_ACCURACY), samples, trainingNanos / 1e9);
+			else
+				System.out.printf("%s: %.2f%% after %d samples, %.1f s, never reached %d%%\n", initializer, 100 * accuracy, samples, trainingNanos / 1e9, (int) (100 * TARGET_ACCURACY));
+		}
+	}
+
+	/**
+	 * Evaluates the given network files, or every network next to FILE, alone & as an ensemble, then distills the
+	 * ensemble into a small network saved to DISTILLED_FILE
+	 */
+	public static void evaluateEnsemble(String[] files) throws IOException
+	{
+		var paths = new ArrayList<Path>();
+		for (String file : files)
+			paths.add(Paths.get(file));
+
+		EnsemblePredictor ensemble = paths.isEmpty()
+			? EnsemblePredictor.readFromDirectory(FILE.getParent(), ENSEMBLE_GLOB)
+			: EnsemblePredictor.readFromFiles(paths);
+		var split = new Split(loadData("training/handwritten.csv"));
+		var evaluator = new Evaluator();
+
+		for (DeepNeuralNetwork member : ensemble.getMembers())
+		{
+			long start = System.nanoTime();
+			Evaluation evaluation = evaluator.evaluate(member, split.testInputs, split.testLabels);
+			report(Arrays.toString(member.getHiddenSizes()), evaluation, System.nanoTime() - start, split.testInputs.length);
+		}
+
+		for (EnsemblePredictor.Combination combination : EnsemblePredictor.Combination.values())
+		{
+			ensemble.setCombination(combination);
+			long start = System.nanoTime();
+			Evaluation evaluation = evaluator.evaluate(ensemble, split.testInputs, split.testLabels);
+			report("Ensemble " + combination, evaluation, System.nanoTime() - start, split.testInputs.length);
 		}
 
-		System.out.print("\rTraining... 100%  Error: " + (int) (error * 100));
+		DeepNeuralNetwork student = newStudent(ensemble.getMembers().get(0).getActivationFunction());
+		ensemble.distill(student, split.inputs, COMPARE_SAMPLES, INITIALIZER_SEED, input ->
+		{
+			double[] clone = input.clone();
+			Malformer.malform(clone);
+			return clone;
+		});
+
+		long start = System.nanoTime();
+		Evaluation evaluation = evaluator.evaluate(student, split.testInputs, split.testLabels);
+		report("Distilled " + Arrays.toString(DISTILLED_HIDDEN_SIZES), evaluation, System.nanoTime() - start, split.testInputs.length);
+
+		student.writeToFile(DISTILLED_FILE);
+	}
+
+	/**
+	 * Distills the teacher into a student with DISTILLED_HIDDEN_SIZES, trains the same student on the labels alone
+	 * for reference & reports accuracy & inference speed of all three. The distilled student is saved to
+	 * DISTILLED_FILE
+	 */
+	public static void distill(Path teacherFile) throws IOException
+	{
+		DeepNeuralNetwork teacher = DeepNeuralNetwork.readFromFile(teacherFile);
+		var split = new Split(loadData("training/handwritten.csv"));
+		UnaryOperator<double[]> malform = input ->
+		{
+			double[] clone = input.clone();
+			Malformer.malform(clone);
+			return clone;
+		};
+
+		var distiller = new Distiller(teacher, split.inputs, split.labels);
+		distiller.setInputTransform(malform);
+
+		// the same student trained on the labels only, to see what the teacher adds
+		distiller.setHardTargetWeight(1);
+		DeepNeuralNetwork labelled = newStudent(teacher.getActivationFunction());
+		distiller.train(labelled, COMPARE_SAMPLES, INITIALIZER_SEED);
+
+		distiller.setTemperature(DISTILL_TEMPERATURE);
+		distiller.setHardTargetWeight(DISTILL_HARD_TARGET_WEIGHT);
+		DeepNeuralNetwork student = newStudent(teacher.getActivationFunction());
+		long start = System.nanoTime();
+		distiller.train(student, COMPARE_SAMPLES, INITIALIZER_SEED);
+		System.out.printf("Distilled for %d samples at temperature %.1f in %.1f s\n", COMPARE_SAMPLES, DISTILL_TEMPERATURE, (System.nanoTime() - start) / 1e9);
+
+		double teacherSpeed = benchmark("Teacher " + Arrays.toString(teacher.getHiddenSizes()), teacher, split);
+		benchmark("Labels only " + Arrays.toString(DISTILLED_HIDDEN_SIZES), labelled, split);
+		double studentSpeed = benchmark("Student " + Arrays.toString(DISTILLED_HIDDEN_SIZES), student, split);
+		System.out.printf("Student is %.1fx faster with %.1fx fewer parameters\n",
+			studentSpeed / teacherSpeed,
+			(double) teacher.getParameterCount() / student.getParameterCount());
+
+		student.writeToFile(DISTILLED_FILE);
+	}
+
+	private static DeepNeuralNetwork newStudent(ActivationFunction activation)
+	{
+		var student = new DeepNeuralNetwork(IMAGE_RES * IMAGE_RES, DISTILLED_HIDDEN_SIZES, OUTPUT_SIZE);
+		student.setActivationFunction(activation);
+		student.setLearningRate(COMPARE_LEARNING_RATE);
+		student.initialize(WeightInitializer.forActivation(activation), INITIALIZER_SEED);
+		return student;
+	}
+
+	/**
+	 * Reports the test accuracy & single sample inference speed of the network, the fastest of several passes over
+	 * the test set so warming up & pauses don't count
+	 *
+	 * @return samples per second
+	 */
+	private static double benchmark(String name, DeepNeuralNetwork network, Split split)
+	{
+		long fastest = Long.MAX_VALUE;
+		for (int round = 0; round < BENCHMARK_ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (double[] input : split.testInputs)
+				network.feed(input);
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		double speed = split.testInputs.length / (fastest / 1e9);
+
+		Evaluation evaluation = new Evaluator().evaluate(network, split.testInputs, split.testLabels);
+		System.out.printf("%s: %d parameters, %.2f%% test accuracy, %.0f inference samples/s\n",
+			name, network.getParameterCount(), 100 * evaluation.getAccuracy(), speed);
+		return speed;
+	}
+
+	private static void report(String name, Evaluation evaluation, long nanos, int samples)
+	{
+		System.out.printf("%s: %.2f%% test accuracy, %.0f inference samples/s\n", name, 100 * evaluation.getAccuracy(), samples / (nanos / 1e9));
+	}
+
+	private static void compare(String name, LayeredNetwork network, double[][] inputs, int[] labels, double[][] testInputs, int[] testLabels)
+	{
+		System.out.println(name + ": " + network + ", " + network.getParameterCount() + " parameters");
+		network.setLearningRate(COMPARE_LEARNING_RATE);
+
+		// every sample once per epoch, like TrainingController
+		var sampler = new EpochSampler(labels, true, 1);
+		double[] expected = new double[OUTPUT_SIZE];
+		long trainingNanos = 0;
+
+		for (int i = 0; i < COMPARE_SAMPLES; i++)
+		{
+			int index = sampler.next();
+			double[] input = inputs[index].clone();
+			Malformer.malform(input);
+			Arrays.fill(expected, 0);
+			expected[labels[index]] = 1;
+
+			long start = System.nanoTime();
+			network.train(input, expected);
+			trainingNanos += System.nanoTime() - start;
+		}
+
+		long start = System.nanoTime();
+		Evaluation evaluation = new Evaluator().evaluate(network, testInputs, testLabels);
+		long inferenceNanos = System.nanoTime() - start;
+
+		System.out.printf("%s: %.2f%% test accuracy, %.0f training samples/s, %.0f inference samples/s\n",
+			name,
+			100 * evaluation.getAccuracy(),
+			COMPARE_SAMPLES / (trainingNanos / 1e9),
+			testInputs.length / (inferenceNanos / 1e9));
 	}
 
 	public static void startDrawer()
@@ -215,8 +486,10 @@ public final class HandwrittenDigits
 
 		while (scanner.hasNextLine())
 		{
-			System.out.print("\r" + LOADING_CHARS[count++ % LOADING_CHARS.length]);
-			System.out.print(" " + count + " samples loaded");
+			if (++count % 1000 == 0)
+			{
+				System.out.print("\r" + LOADING_CHARS[count / 1000 % LOADING_CHARS.length] + " " + count + " samples loaded");
+			}
 
 			String[] data = scanner.nextLine().split(",");
 			int expected = Integer.parseInt(data[0]);
@@ -235,6 +508,44 @@ public final class HandwrittenDigits
 		return trainingData;
 	}
 
+	/**
+	 * Shuffled data with the last part held out & malformed once for testing
+	 */
+	static final class Split
+	{
+		final double[][] inputs, testInputs;
+		final int[] labels, testLabels;
+
+		Split(List<Data> data) throws FileNotFoundException
+		{
+			if (data == null)
+			{
+				throw new FileNotFoundException();
+			}
+
+			Collections.shuffle(data, new Random(0));
+			int testSize = (int) (data.size() * VALIDATION_FRACTION);
+			int trainSize = data.size() - testSize;
+
+			inputs = new double[trainSize][];
+			labels = new int[trainSize];
+			testInputs = new double[testSize][];
+			testLabels = new int[testSize];
+			for (int i = 0; i < data.size(); i++)
+			{
+				if (i < trainSize)
+				{
+					inputs[i] = data.get(i).input;
+					labels[i] = data.get(i).expected;
+				} else
+				{
+					testInputs[i - trainSize] = data.get(i).getMalformed();
+					testLabels[i - trainSize] = data.get(i).expected;
+				}
+			}
+		}
+	}
+
 	public static class Data
 	{
 		int expected;
@@ -248,6 +559,16 @@ public final class HandwrittenDigits
 //			network.Malformer.malform(input);
 		}
 
+		public int getExpected()
+		{
+			return expected;
+		}
+
+		public double[] getInput()
+		{
+			return input;
+		}
+
 		public double[] getMalformed()
 		{
 			double[] clone = input.clone();
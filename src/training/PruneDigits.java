@@ -0,0 +1,79 @@
+package training;
+
+import network.DeepNeuralNetwork;
+import network.Evaluator;
+import network.Malformer;
+import network.Pruner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Prunes the handwritten digits network, fine-tunes it & reports sparsity, accuracy and inference speed
+ */
+public final class PruneDigits
+{
+	public final static Path FILE = Paths.get("networks/complex_digits_pruned.dat");
+	public static final double SPARSITY = 0.8;
+	public static final int FINE_TUNE_SAMPLES = 100_000;
+	public static final long FINE_TUNE_SEED = 42;
+	public static final int LATENCY_ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException
+	{
+		DeepNeuralNetwork dense = DeepNeuralNetwork.readFromFile(HandwrittenDigits.FILE);
+
+		var split = new HandwrittenDigits.Split(HandwrittenDigits.loadData("training/handwritten.csv"));
+
+		DeepNeuralNetwork pruned = dense.copy();
+		int[] mask = Pruner.pruneToSparsity(pruned, SPARSITY);
+		System.out.println("Pruned " + mask.length + " weights, sparsity per layer: " + Arrays.toString(Pruner.sparsity(pruned)));
+
+		// every accuracy is measured on the held-out, malformed inputs the fine-tuning never sees
+		var evaluator = new Evaluator();
+		double denseAccuracy = evaluator.evaluate(dense, split.testInputs, split.testLabels).getAccuracy();
+		double prunedAccuracy = evaluator.evaluate(pruned, split.testInputs, split.testLabels).getAccuracy();
+
+		System.out.println("Fine-tuning for " + FINE_TUNE_SAMPLES + " samples...");
+		Pruner.fineTune(pruned, mask, split.inputs, split.labels, FINE_TUNE_SAMPLES, FINE_TUNE_SEED, input ->
+		{
+			double[] clone = input.clone();
+			Malformer.malform(clone);
+			return clone;
+		});
+		double tunedAccuracy = evaluator.evaluate(pruned, split.testInputs, split.testLabels).getAccuracy();
+
+		System.out.printf("Accuracy: dense %.2f%%, pruned %.2f%%, fine-tuned %.2f%%%n",
+			100 * denseAccuracy,
+			100 * prunedAccuracy,
+			100 * tunedAccuracy);
+
+		pruned.writeToFile(FILE);
+
+		// latency, the first rounds only warm up the JIT
+		long denseNanos = 0, prunedNanos = 0;
+		for (int round = 0; round < LATENCY_ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (double[] input : split.testInputs)
+			{
+				dense.feed(input);
+			}
+			denseNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (double[] input : split.testInputs)
+			{
+				pruned.feed(input);
+			}
+			prunedNanos = System.nanoTime() - start;
+		}
+
+		System.out.printf("Latency: %.1fus -> %.1fus per sample (%.1fx faster)%n",
+			denseNanos / 1e3 / split.testInputs.length,
+			prunedNanos / 1e3 / split.testInputs.length,
+			denseNanos / (double) prunedNanos);
+	}
+}
@@ -0,0 +1,84 @@
+package training;
+
+import network.DeepNeuralNetwork;
+import network.Evaluator;
+import network.QuantizedNetwork;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Quantizes the handwritten digits network to int8 and reports size, latency & accuracy against the float model
+ */
+public final class QuantizeDigits
+{
+	public final static Path FILE = Paths.get("networks/complex_digits.q8");
+	public static final int CALIBRATION_SAMPLES = 1000;
+	public static final int LATENCY_ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException
+	{
+		DeepNeuralNetwork network = DeepNeuralNetwork.readFromFile(HandwrittenDigits.FILE);
+
+		var split = new HandwrittenDigits.Split(HandwrittenDigits.loadData("training/handwritten.csv"));
+		double[][] inputs = split.testInputs;
+		int[] labels = split.testLabels;
+
+		// calibrate on training inputs only, the split shuffled them with a fixed seed so the subset stays the same
+		double[][] calibration = Arrays.copyOf(split.inputs, Math.min(CALIBRATION_SAMPLES, split.inputs.length));
+
+		QuantizedNetwork quantized = QuantizedNetwork.quantize(network, calibration);
+		quantized.writeToFile(FILE);
+
+		int floatBytes = network.getBytes().length;
+		int quantizedBytes = quantized.getByteCount();
+		System.out.printf("Model size: %d bytes -> %d bytes (%.1fx smaller), written to %s%n",
+			floatBytes,
+			quantizedBytes,
+			floatBytes / (double) quantizedBytes,
+			FILE);
+
+		// accuracy on the held-out, malformed inputs
+		double floatAccuracy = new Evaluator().evaluate(network, inputs, labels).getAccuracy();
+		int correct = 0;
+		for (int i = 0; i < inputs.length; i++)
+		{
+			if (DeepNeuralNetwork.largestIndex(quantized.feed(inputs[i])) == labels[i])
+			{
+				correct++;
+			}
+		}
+		double quantizedAccuracy = correct / (double) inputs.length;
+
+		System.out.printf("Accuracy: %.2f%% -> %.2f%% (%+.2f%%)%n",
+			100 * floatAccuracy,
+			100 * quantizedAccuracy,
+			100 * (quantizedAccuracy - floatAccuracy));
+
+		// latency, the first rounds only warm up the JIT
+		long floatNanos = 0, quantizedNanos = 0;
+		for (int round = 0; round < LATENCY_ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (double[] input : inputs)
+			{
+				network.feed(input);
+			}
+			floatNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (double[] input : inputs)
+			{
+				quantized.feed(input);
+			}
+			quantizedNanos = System.nanoTime() - start;
+		}
+
+		System.out.printf("Latency: %.1fus -> %.1fus per sample (%.1fx faster)%n",
+			floatNanos / 1e3 / inputs.length,
+			quantizedNanos / 1e3 / inputs.length,
+			floatNanos / (double) quantizedNanos);
+	}
+}
@@ -3,7 +3,8 @@ package training;
 import drawers.DigitDrawer;
 import network.ActivationFunction;
 import network.DeepNeuralNetwork;
-import network.Matrix;
+import network.EpochSampler;
+import network.Evaluator;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -26,49 +27,15 @@ public class SmallDigits {
 		List<double[][]> testData = loadSet("testing/small_digits.csv");
 
 		if (testData != null) {
-			int totalCorrect = 0, total = 0;
-			var correct = new int[10];
-			var totalPerDigit = new int[10];
-			var errors = new double[10];
-			var totalError = 0.0;
+			double[][] inputs = new double[testData.size()][];
+			int[] labels = new int[testData.size()];
 
-			// for all test data
-			for (double[][] data : testData) {
-				// get response from network
-				double[] result = nn.feed(data[0]);
-
-				// get the expected digit
-				int expectedDigit = DeepNeuralNetwork.largestIndex(data[1]);
-
-				// get the guessed digit
-				int resultDigit = DeepNeuralNetwork.largestIndex(result);
-
-				// add to total correct for that digit
-				totalPerDigit[expectedDigit]++;
-
-				// if correct then add to total correct for that digit & total correct
-				if (resultDigit == expectedDigit) {
-					correct[expectedDigit]++;
-					totalCorrect++;
-				}
-
-				total++;
-
-				// calculate error MSE
-				errors[expectedDigit] = Matrix.asColumn(data[1]).subtract(Matrix.asColumn(result)).map(n -> n * n).sum();
-
-				// add to total error
-				totalError += errors[expectedDigit];
-			}
-
-			// print all the data
-			for (int i = 0; i < 10; i++) {
-				System.out.print("Accuracy for " + i + ": " + (int) (100 * (float) correct[i] / totalPerDigit[i]) + "%");
-				System.out.println(" Error: " + (int) (100 * errors[i] / totalPerDigit[i]) + "%");
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = testData.get(i)[0];
+				labels[i] = DeepNeuralNetwork.largestIndex(testData.get(i)[1]);
 			}
 
-			System.out.println("Average accuracy: " + (int) (100 * (float) totalCorrect / total) + "%");
-			System.out.println("Average error: " + (int) (100 * totalError / total) + "%");
+			new Evaluator().evaluate(nn, inputs, labels).print(System.out);
 		} else {
 			System.out.println("Could not load testing data");
 		}
@@ -92,15 +59,21 @@ public class SmallDigits {
 
 		System.out.println("Training...");
 
+		// shuffle once per epoch so every sample is seen equally often
+		int[] labels = new int[trainingData.size()];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = DeepNeuralNetwork.largestIndex(trainingData.get(i)[1]);
+
+		var sampler = new EpochSampler(labels, true, System.nanoTime());
+
 		for (int i = 0; i < TRAINING_LIMIT; i++) {
-			// pick random training data
-			int r = (int) (Math.random() * trainingData.size());
-			double[][] data = trainingData.get(r);
-			nn.train(data[0], data[1]);
+			double[][] data = trainingData.get(sampler.next());
+			sampler.record(nn.train(data[0], data[1]).sum());
 
 			System.out.print("\rTraining " + i + "/" + TRAINING_LIMIT);
 		}
 		System.out.println();
+		System.out.println("Trained for " + sampler.getEpoch() + " epochs, last epoch error: " + (int) (100 * sampler.getLastEpochError()) + "%");
 		return nn;
 	}
 